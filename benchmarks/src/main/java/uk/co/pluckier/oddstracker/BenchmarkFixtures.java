@@ -0,0 +1,70 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Generated fixture data for the benchmarks: synthetic markets of realistic size, and journal
+ * directories written from them one poll a minute.
+ */
+final class BenchmarkFixtures {
+
+    /** The race day stamped on every generated event, so event strings do not change as polls cross midnight. */
+    static final LocalDate RACE_DAY = LocalDate.of(2026, 1, 1);
+    static final LocalDateTime FIRST_POLL = RACE_DAY.atStartOfDay();
+    static final int RUNNERS_PER_EVENT = 10;
+    /** About the share of runners whose price moves between two polls on a busy afternoon. */
+    static final double MOVE_PROBABILITY = 0.3;
+
+    private BenchmarkFixtures() {
+    }
+
+    static SyntheticMarket market(int runners) {
+        return new SyntheticMarket(Math.max(1, runners / RUNNERS_PER_EVENT), RUNNERS_PER_EVENT, MOVE_PROBABILITY, 42);
+    }
+
+    /** Generates consecutive polls of one market, so a benchmark can replay them without paying for generation. */
+    static List<Map<Long, RunnerSnapshot>> polls(int runners, int count) {
+        SyntheticMarket market = market(runners);
+        List<Map<Long, RunnerSnapshot>> polls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            polls.add(market.next(RACE_DAY));
+        }
+        return polls;
+    }
+
+    /** Writes a journal of {@code polls} polls of a market of {@code runners} runners into a new temporary directory. */
+    static File journal(int runners, int polls) throws IOException {
+        File dir = Files.createTempDirectory("oddstracker-bench").toFile();
+        SyntheticMarket market = market(runners);
+        try (OddsJournal journal = new OddsJournal(dir)) {
+            for (int i = 0; i < polls; i++) {
+                journal.append(FIRST_POLL.plusMinutes(i), market.next(RACE_DAY));
+            }
+        }
+        return dir;
+    }
+
+    /** The event string of the first race of the day. */
+    static String firstEvent(int runners) {
+        return market(runners).next(RACE_DAY).values().stream().map(RunnerSnapshot::event).min(Comparator.naturalOrder()).orElseThrow();
+    }
+
+    static void delete(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
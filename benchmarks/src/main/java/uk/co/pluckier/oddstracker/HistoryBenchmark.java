@@ -0,0 +1,94 @@
+package uk.co.pluckier.oddstracker;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+
+/**
+ * {@code getRaceHistory} for one event: the full history from the in-memory index, and a one-hour
+ * range read from the journal. The {@code json} benchmarks add encoding the full history as /api/history
+ * does, to a stream that discards it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryBenchmark {
+
+    @Param({"500"})
+    public int snapshots;
+
+    @Param({"1000"})
+    public int runners;
+
+    private File journalDir;
+    private OddsTracker tracker;
+    private String event;
+    private long from;
+    private long to;
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        journalDir = BenchmarkFixtures.journal(runners, snapshots);
+        tracker = new OddsTracker(journalDir, () -> null, BenchmarkFixtures.RACE_DAY);
+        event = BenchmarkFixtures.firstEvent(runners);
+        from = BenchmarkFixtures.FIRST_POLL.plusHours(2).atZone(ZoneId.systemDefault()).toEpochSecond();
+        to = from + TimeUnit.HOURS.toSeconds(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        BenchmarkFixtures.delete(journalDir);
+    }
+
+    @Benchmark
+    public RaceHistory indexed() {
+        return tracker.getRaceHistory(event);
+    }
+
+    @Benchmark
+    public RaceHistory range() {
+        return tracker.getRaceHistory(event, from, to);
+    }
+
+    @Benchmark
+    public void json() throws IOException {
+        writeJson(false);
+    }
+
+    @Benchmark
+    public void jsonCompact() throws IOException {
+        writeJson(true);
+    }
+
+    private void writeJson(boolean compact) throws IOException {
+        try (JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8), 8192))) {
+            HistoryJson.write(out, tracker.getRaceHistory(event), compact);
+        }
+    }
+}
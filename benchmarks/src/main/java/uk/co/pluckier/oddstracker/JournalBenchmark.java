@@ -0,0 +1,87 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Writing one poll to the journal, as {@code OddsTracker.saveOdds} does, and reading a segment back,
+ * as every startup and history query does, at realistic market sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+
+    /** Enough polls for one full checkpoint cycle. */
+    private static final int POLLS = OddsJournal.DEFAULT_CHECKPOINT_INTERVAL;
+
+    @Param({"1000", "5000", "20000"})
+    public int runners;
+
+    private List<Map<Long, RunnerSnapshot>> polls;
+    private File segmentDir;
+    private File segment;
+    private File appendDir;
+    private OddsJournal journal;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        polls = BenchmarkFixtures.polls(runners, POLLS);
+        segmentDir = BenchmarkFixtures.journal(runners, POLLS);
+        segment = OddsJournal.listSegments(segmentDir).get(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void openJournal() throws IOException {
+        appendDir = Files.createTempDirectory("oddstracker-bench").toFile();
+        journal = new OddsJournal(appendDir);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeJournal() throws IOException {
+        journal.close();
+        BenchmarkFixtures.delete(appendDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        BenchmarkFixtures.delete(segmentDir);
+    }
+
+    /** Appends the next generated poll, so most calls write a delta and one in thirty a checkpoint. */
+    @Benchmark
+    public int append() throws IOException {
+        int i = next++;
+        return journal.append(BenchmarkFixtures.FIRST_POLL.plusSeconds(i), polls.get(i % POLLS));
+    }
+
+    /** Decodes a whole segment of one checkpoint cycle, rebuilding the market after every poll. */
+    @Benchmark
+    public void replay(Blackhole blackhole) throws IOException {
+        JournalReader.replay(segment, poll -> blackhole.consume(poll.state().size()));
+    }
+}
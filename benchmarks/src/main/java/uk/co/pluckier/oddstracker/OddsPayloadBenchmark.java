@@ -0,0 +1,61 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembling the {@code /api/odds} payload after a poll: grouping runners by race, movement and
+ * overround arithmetic, Gson serialization, and compressing the result. The payload is built directly,
+ * as the refresh after a poll skips any day whose state has not changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OddsPayloadBenchmark {
+
+    /** A few polls, so runners have a baseline, a last-known price and a recorded movement. */
+    private static final int POLLS = 10;
+
+    @Param({"1000", "5000", "20000"})
+    public int runners;
+
+    private File journalDir;
+    private WebServer webServer;
+    private MarketState state;
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        journalDir = BenchmarkFixtures.journal(runners, POLLS);
+        OddsTracker tracker = new OddsTracker(journalDir, () -> null, BenchmarkFixtures.RACE_DAY);
+        webServer = new WebServer(tracker);
+        state = tracker.getMarketState(BenchmarkFixtures.RACE_DAY);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        BenchmarkFixtures.delete(journalDir);
+    }
+
+    @Benchmark
+    public Object buildOddsPayload() {
+        return webServer.buildOddsPayload(state);
+    }
+}
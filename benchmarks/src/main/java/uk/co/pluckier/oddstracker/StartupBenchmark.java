@@ -0,0 +1,55 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link OddsTracker} constructor's rebuild of all live state and the history index from the journal.
+ * Polls are a minute apart, so the larger fixtures span several daily segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int snapshots;
+
+    @Param({"1000"})
+    public int runners;
+
+    private File journalDir;
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        journalDir = BenchmarkFixtures.journal(runners, snapshots);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        BenchmarkFixtures.delete(journalDir);
+    }
+
+    @Benchmark
+    public OddsTracker rebuild() {
+        return new OddsTracker(journalDir, () -> null, BenchmarkFixtures.RACE_DAY);
+    }
+}
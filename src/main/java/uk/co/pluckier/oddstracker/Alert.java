@@ -0,0 +1,17 @@
+package uk.co.pluckier.oddstracker;
+
+/**
+ * An alert raised by an {@link AlertRule}.
+ * @param ruleId The rule that raised it.
+ * @param type The rule's type.
+ * @param event The event string.
+ * @param runnerId The runner, or null for an alert about the whole race.
+ * @param runnerName The runner's name, or null for an alert about the whole race.
+ * @param message A one-line description for people.
+ * @param from The price (or overround) the rule compared against.
+ * @param to The price (or overround) now, or 0 for a non-runner.
+ * @param timestamp The time of the poll that raised it, in epoch milliseconds.
+ */
+public record Alert(String ruleId, AlertRule.Type type, String event, Long runnerId, String runnerName, String message,
+                    double from, double to, long timestamp) {
+}
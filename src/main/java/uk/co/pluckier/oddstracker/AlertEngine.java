@@ -0,0 +1,298 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates {@link AlertRule}s against each poll and hands the alerts they raise to the {@link AlertSink}s.
+ * <p>
+ * Rules are indexed by runner and by event, so a poll only looks at the rules covering the runners whose record
+ * changed (and the races they are in), plus the rules covering everything. Its cost grows with the number of
+ * changes rather than with rules times runners.
+ * <p>
+ * Evaluation runs on the processor thread, but delivery does not: each sink has its own bounded queue and thread.
+ * If a sink falls so far behind that its queue is full, further alerts for it are dropped and counted, so a slow
+ * sink never holds up a poll or the other sinks.
+ * <p>
+ * Settings (system properties):
+ * <ul>
+ *   <li>{@code oddstracker.alerts.rules} - a JSON rules file, as described on {@link AlertRule}; no alerts without one</li>
+ *   <li>{@code oddstracker.alerts.webhookUrl} - also POST each alert to this URL</li>
+ *   <li>{@code oddstracker.alerts.queueSize} - alerts each sink may have waiting, default 1000</li>
+ * </ul>
+ */
+public class AlertEngine implements AutoCloseable {
+
+    private static final int RECENT_ALERTS = 100;
+
+    private final HistoryIndex history;
+    private final List<AlertRule> rules;
+    private final int queueSize;
+    /** Runner rules by the runner they name, by the event they name, and covering every runner. Likewise for races. */
+    private final Map<Long, List<AlertRule>> runnerRulesByRunner = new HashMap<>();
+    private final Map<String, List<AlertRule>> runnerRulesByEvent = new HashMap<>();
+    private final List<AlertRule> runnerRulesForAll = new ArrayList<>();
+    private final Map<String, List<AlertRule>> raceRulesByEvent = new HashMap<>();
+    private final List<AlertRule> raceRulesForAll = new ArrayList<>();
+    /** When each rule last fired for each runner, so a move is not reported again on every poll of its window. */
+    private final Map<String, Long> lastFired = new HashMap<>();
+    private final List<SinkWorker> sinks = new CopyOnWriteArrayList<>();
+    private final Deque<Alert> recent = new ArrayDeque<>();
+    private final AtomicLong raised = new AtomicLong();
+
+    /**
+     * @param history The in-memory history, from which price moves over a window are measured.
+     */
+    public AlertEngine(List<AlertRule> rules, HistoryIndex history, int queueSize) {
+        this.rules = List.copyOf(rules);
+        this.history = history;
+        this.queueSize = Math.max(1, queueSize);
+        for (AlertRule rule : rules) {
+            if (rule.isRaceRule()) {
+                (rule.event() != null ? raceRulesByEvent.computeIfAbsent(rule.event(), e -> new ArrayList<>()) : raceRulesForAll).add(rule);
+            } else if (rule.runnerId() != null) {
+                runnerRulesByRunner.computeIfAbsent(rule.runnerId(), r -> new ArrayList<>()).add(rule);
+            } else {
+                (rule.event() != null ? runnerRulesByEvent.computeIfAbsent(rule.event(), e -> new ArrayList<>()) : runnerRulesForAll).add(rule);
+            }
+        }
+    }
+
+    /** Creates the engine from the {@code oddstracker.alerts.*} settings, logging alerts and optionally posting them to a webhook. */
+    public static AlertEngine fromSystemProperties(HistoryIndex history) {
+        List<AlertRule> rules = List.of();
+        String rulesFile = System.getProperty("oddstracker.alerts.rules");
+        if (rulesFile != null) {
+            try {
+                rules = AlertRule.load(new File(rulesFile));
+                System.out.println("Loaded " + rules.size() + " alert rules from " + rulesFile + ".");
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error loading alert rules: " + e.getMessage() + "; alerts are disabled.");
+            }
+        }
+        AlertEngine engine = new AlertEngine(rules, history, Integer.getInteger("oddstracker.alerts.queueSize", 1000));
+        if (!rules.isEmpty()) {
+            engine.addSink(new LogAlertSink());
+            String webhookUrl = System.getProperty("oddstracker.alerts.webhookUrl");
+            if (webhookUrl != null) {
+                engine.addSink(new WebhookAlertSink(URI.create(webhookUrl)));
+            }
+        }
+        return engine;
+    }
+
+    /** Starts delivering alerts to another sink, from its own queue and thread. */
+    public void addSink(AlertSink sink) {
+        SinkWorker worker = new SinkWorker(sink, queueSize);
+        sinks.add(worker);
+        worker.thread.start();
+    }
+
+    /**
+     * Checks one race day's poll against the rules and queues any alerts it raises. Called on the processor thread
+     * once the poll's history has been appended. Errors are logged rather than thrown, so a bad rule cannot stop a poll.
+     */
+    public void evaluate(MarketState state, long epochSecond) {
+        if (rules.isEmpty() || state.changedRunners() == 0) {
+            return;
+        }
+        try {
+            RunnerStore current = state.current();
+            Set<String> changedEvents = new LinkedHashSet<>();
+            for (int slot : state.changedSlots()) {
+                String event = current.event(slot);
+                long runnerId = state.registry().runnerId(slot);
+                evaluateRunner(runnerRulesForAll, state, slot, runnerId, epochSecond);
+                if (event != null) {
+                    evaluateRunner(runnerRulesByEvent.get(event), state, slot, runnerId, epochSecond);
+                    changedEvents.add(event);
+                }
+                evaluateRunner(runnerRulesByRunner.get(runnerId), state, slot, runnerId, epochSecond);
+            }
+            if (raceRulesForAll.isEmpty() && raceRulesByEvent.isEmpty()) {
+                return;
+            }
+            for (String event : changedEvents) {
+                evaluateRace(raceRulesForAll, state, event, epochSecond);
+                evaluateRace(raceRulesByEvent.get(event), state, event, epochSecond);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error evaluating alert rules: " + e.getMessage());
+        }
+    }
+
+    private void evaluateRunner(List<AlertRule> candidates, MarketState state, int slot, long runnerId, long epochSecond) {
+        if (candidates == null) {
+            return;
+        }
+        RunnerStore current = state.current();
+        String event = current.event(slot);
+        for (AlertRule rule : candidates) {
+            switch (rule.type()) {
+                case NON_RUNNER -> {
+                    if (state.previous().isPriced(slot) && !current.isPriced(slot)) {
+                        double price = state.previous().odds(slot);
+                        raise(rule, event, runnerId, current.name(slot), price, 0, epochSecond,
+                                current.name(slot) + " is a non-runner in " + event + " (was " + price + ")");
+                    }
+                }
+                case SHORTEN, DRIFT -> {
+                    if (!current.isPriced(slot)) {
+                        continue;
+                    }
+                    double price = current.odds(slot);
+                    double reference = history.priceAt(event, runnerId, epochSecond - rule.minutes() * 60L);
+                    if (!(reference > 0)) {
+                        continue;
+                    }
+                    double change = (price - reference) / reference * 100;
+                    boolean moved = rule.type() == AlertRule.Type.SHORTEN ? change <= -rule.percent() : change >= rule.percent();
+                    String key = rule.id() + ":" + runnerId;
+                    Long fired = lastFired.get(key);
+                    if (moved && (fired == null || epochSecond - fired >= rule.minutes() * 60L)) {
+                        lastFired.put(key, epochSecond);
+                        raise(rule, event, runnerId, current.name(slot), reference, price, epochSecond,
+                                String.format("%s %s %.0f%% in %d min, %.2f -> %.2f, in %s", current.name(slot),
+                                        rule.type() == AlertRule.Type.SHORTEN ? "shortened" : "drifted",
+                                        Math.abs(change), rule.minutes(), reference, price, event));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void evaluateRace(List<AlertRule> candidates, MarketState state, String event, long epochSecond) {
+        int[] slots = state.racesByEvent().get(event);
+        if (candidates == null || slots == null) {
+            return;
+        }
+        double previous = overround(state.previous(), slots);
+        double current = overround(state.current(), slots);
+        if (Double.isNaN(previous) || Double.isNaN(current)) {
+            return;
+        }
+        for (AlertRule rule : candidates) {
+            boolean rose = previous < rule.level() && current >= rule.level();
+            boolean fell = previous >= rule.level() && current < rule.level();
+            if (rose || fell) {
+                raise(rule, event, null, null, previous, current, epochSecond,
+                        String.format("Overround %s %.1f%% in %s, %.1f%% -> %.1f%%", rose ? "rose above" : "fell below",
+                                rule.level(), event, previous, current));
+            }
+        }
+    }
+
+    /** @return The race's overround in percent over 100 from its priced runners, or {@code NaN} if none are priced. */
+    private static double overround(RunnerStore store, int[] slots) {
+        double impliedProbability = 0;
+        boolean priced = false;
+        for (int slot : slots) {
+            if (store.isPriced(slot)) {
+                impliedProbability += 1.0 / store.odds(slot);
+                priced = true;
+            }
+        }
+        return priced ? impliedProbability * 100.0 - 100.0 : Double.NaN;
+    }
+
+    private void raise(AlertRule rule, String event, Long runnerId, String runnerName, double from, double to,
+                       long epochSecond, String message) {
+        Alert alert = new Alert(rule.id(), rule.type(), event, runnerId, runnerName, message, from, to, epochSecond * 1000);
+        raised.incrementAndGet();
+        synchronized (recent) {
+            if (recent.size() == RECENT_ALERTS) {
+                recent.removeFirst();
+            }
+            recent.addLast(alert);
+        }
+        for (SinkWorker sink : sinks) {
+            sink.offer(alert);
+        }
+    }
+
+    /** Forgets when rules last fired. Called when race days are sealed, so the record does not grow without end. */
+    public void clearCooldowns() {
+        lastFired.clear();
+    }
+
+    /** @return The most recent alerts, oldest first. */
+    public List<Alert> recentAlerts() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    public List<AlertRule> getRules() {
+        return rules;
+    }
+
+    /** @return How many alerts have been raised since startup. */
+    public long raisedCount() {
+        return raised.get();
+    }
+
+    /** @return How many alert deliveries have been dropped since startup because a sink's queue was full. */
+    public long droppedCount() {
+        return sinks.stream().mapToLong(sink -> sink.dropped.get()).sum();
+    }
+
+    @Override
+    public void close() {
+        sinks.forEach(sink -> sink.thread.interrupt());
+    }
+
+    /** One sink with the queue and daemon thread that feed it. */
+    private static final class SinkWorker implements Runnable {
+        private final AlertSink sink;
+        private final BlockingQueue<Alert> queue;
+        private final Thread thread;
+        private final AtomicLong dropped = new AtomicLong();
+
+        SinkWorker(AlertSink sink, int queueSize) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.thread = new Thread(this, "alert-sink-" + sink.name());
+            this.thread.setDaemon(true);
+        }
+
+        void offer(Alert alert) {
+            if (!queue.offer(alert) && dropped.getAndIncrement() == 0) {
+                System.err.println("Alert sink " + sink.name() + " is falling behind; dropping alerts.");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Alert alert;
+                try {
+                    alert = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    sink.deliver(alert);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    System.err.println("Error delivering alert to " + sink.name() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package uk.co.pluckier.oddstracker;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A condition to alert on. A rule covers one runner if it names a {@code runnerId}, every runner in one race if it
+ * names an {@code event}, and otherwise every runner being tracked.
+ * <p>
+ * Rules are read from a JSON array, e.g.:
+ * <pre>
+ * [
+ *   {"id": "steamers", "type": "SHORTEN", "percent": 20, "minutes": 10},
+ *   {"id": "drifters", "type": "DRIFT", "percent": 30, "minutes": 15},
+ *   {"type": "OVERROUND", "level": 120},
+ *   {"type": "NON_RUNNER"}
+ * ]
+ * </pre>
+ * @param id A name for the rule, shown on its alerts. Defaults to the type and its position in the file.
+ * @param percent For {@link Type#SHORTEN} and {@link Type#DRIFT}, the price change that raises an alert.
+ * @param minutes For {@link Type#SHORTEN} and {@link Type#DRIFT}, the window the change is measured over.
+ * @param level For {@link Type#OVERROUND}, the overround (in percent over 100) whose crossing raises an alert.
+ */
+public record AlertRule(String id, Type type, String event, Long runnerId, double percent, int minutes, double level) {
+
+    public enum Type {
+        /** A runner's price has shortened by at least {@code percent} within the last {@code minutes}. */
+        SHORTEN,
+        /** A runner's price has lengthened by at least {@code percent} within the last {@code minutes}. */
+        DRIFT,
+        /** A race's overround has moved across {@code level}, in either direction. */
+        OVERROUND,
+        /** A runner that had a price has been declared a non-runner. */
+        NON_RUNNER
+    }
+
+    /** @return True if the rule is about a whole race rather than individual runners. */
+    public boolean isRaceRule() {
+        return type == Type.OVERROUND;
+    }
+
+    /**
+     * Reads and checks a rules file.
+     * @throws IllegalArgumentException If a rule is incomplete.
+     */
+    public static List<AlertRule> load(File file) throws IOException {
+        AlertRule[] parsed;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            parsed = new Gson().fromJson(reader, AlertRule[].class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid alert rules in " + file + ": " + e.getMessage(), e);
+        }
+        List<AlertRule> rules = new ArrayList<>();
+        for (int i = 0; parsed != null && i < parsed.length; i++) {
+            AlertRule rule = parsed[i];
+            if (rule.type() == null) {
+                throw new IllegalArgumentException("Alert rule " + (i + 1) + " in " + file + " has no type");
+            }
+            if ((rule.type() == Type.SHORTEN || rule.type() == Type.DRIFT) && (rule.percent() <= 0 || rule.minutes() <= 0)) {
+                throw new IllegalArgumentException("Alert rule " + (i + 1) + " in " + file + " needs a positive percent and minutes");
+            }
+            if (rule.isRaceRule() && rule.runnerId() != null) {
+                throw new IllegalArgumentException("Alert rule " + (i + 1) + " in " + file + " is about a race, so cannot name a runner");
+            }
+            String id = rule.id() != null ? rule.id() : rule.type().name().toLowerCase() + "-" + (i + 1);
+            rules.add(new AlertRule(id, rule.type(), rule.event(), rule.runnerId(), rule.percent(), rule.minutes(), rule.level()));
+        }
+        return rules;
+    }
+}
@@ -0,0 +1,13 @@
+package uk.co.pluckier.oddstracker;
+
+/**
+ * Somewhere alerts are delivered. Each sink is fed from its own queue on its own thread by the {@link AlertEngine},
+ * so a sink may block (e.g. on the network) without holding up polling or the other sinks.
+ */
+public interface AlertSink {
+
+    void deliver(Alert alert) throws Exception;
+
+    /** @return A short name for logs and thread names. */
+    String name();
+}
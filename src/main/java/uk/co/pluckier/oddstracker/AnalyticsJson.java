@@ -0,0 +1,153 @@
+package uk.co.pluckier.oddstracker;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.HistoryIndex.RunnerHistory;
+import uk.co.pluckier.oddstracker.RaceAnalytics.BookSeries;
+
+/**
+ * Writes a race's analytics as JSON: the overround series, each runner's share of the book at the same points, and the
+ * biggest movers over each window. Timestamps are epoch milliseconds; a point at which a runner had no price (not yet
+ * priced, or withdrawn) is null.
+ * <pre>{"eventIdentifier":"...","asOf":1714568400000,"timestamps":[...],"overround":[...],
+ * "runners":[{"runnerId":1,"runnerName":"...","odds":3.5,"share":[0.2741,...]}],
+ * "movers":[{"minutes":5,"steamers":[{"runnerId":1,"runnerName":"...","from":4.0,"to":3.5,"percent":-12.5}],"drifters":[...]}]}</pre>
+ * Shares and moves are read from the price history as the response is written, so moves are always measured back from
+ * the latest poll rather than from whenever the race last changed.
+ */
+final class AnalyticsJson {
+
+    private AnalyticsJson() {
+    }
+
+    /**
+     * Writes one race's analytics as a JSON object.
+     * @param windowsMinutes The windows, in minutes back from the latest poll, over which to rank movers.
+     * @param topMovers The most steamers and drifters to list for each window.
+     */
+    static void write(JsonWriter out, RaceHistory history, BookSeries book, int[] windowsMinutes, int topMovers) throws IOException {
+        // The latest poll with prices for the race, which may be later than the last change to its book.
+        long asOf = book.lastEpochSecond();
+        for (RunnerHistory runner : history.runners()) {
+            if (runner.size() > 0) {
+                asOf = Math.max(asOf, runner.epochSeconds()[runner.size() - 1]);
+            }
+        }
+        out.beginObject();
+        out.name("eventIdentifier").value(history.eventIdentifier());
+        out.name("asOf").value(asOf == Long.MIN_VALUE ? null : asOf * 1000);
+        out.name("timestamps").beginArray();
+        for (int i = 0; i < book.size(); i++) {
+            out.value(book.epochSeconds()[i] * 1000);
+        }
+        out.endArray();
+        out.name("overround").beginArray();
+        for (int i = 0; i < book.size(); i++) {
+            writeRounded(out, book.overround(i), 100);
+        }
+        out.endArray();
+
+        out.name("runners").beginArray();
+        for (RunnerHistory runner : history.runners()) {
+            out.beginObject();
+            out.name("runnerId").value(runner.runnerId());
+            out.name("runnerName").value(runner.runnerName());
+            out.name("odds");
+            writeRounded(out, latestPrice(runner, book, asOf), 100);
+            writeShares(out, runner, book);
+            out.endObject();
+        }
+        out.endArray();
+
+        out.name("movers").beginArray();
+        for (int minutes : windowsMinutes) {
+            List<Move> moves = moves(history, book, asOf, minutes);
+            out.beginObject();
+            out.name("minutes").value(minutes);
+            out.name("steamers");
+            writeMoves(out, moves.stream().filter(move -> move.percent() < 0)
+                    .sorted(Comparator.comparingDouble(Move::percent)).limit(topMovers).toList());
+            out.name("drifters");
+            writeMoves(out, moves.stream().filter(move -> move.percent() > 0)
+                    .sorted(Comparator.comparingDouble(Move::percent).reversed()).limit(topMovers).toList());
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /** Writes the runner's share at each of the book's points, walking its history alongside the series. */
+    private static void writeShares(JsonWriter out, RunnerHistory runner, BookSeries book) throws IOException {
+        long[] epochSeconds = runner.epochSeconds();
+        double[] odds = runner.odds();
+        int next = 0;
+        double price = Double.NaN;
+        out.name("share").beginArray();
+        for (int i = 0; i < book.size(); i++) {
+            long epochSecond = book.epochSeconds()[i];
+            while (next < runner.size() && epochSeconds[next] <= epochSecond) {
+                price = odds[next++];
+            }
+            double impliedProbability = book.impliedProbabilities()[i];
+            if (price > 0 && impliedProbability > 0 && !book.isWithdrawn(runner.runnerId(), epochSecond)) {
+                writeRounded(out, 1.0 / price / impliedProbability, 10000);
+            } else {
+                out.nullValue();
+            }
+        }
+        out.endArray();
+    }
+
+    /** @return The runner's price as of the latest point, or {@code NaN} if it had none or was withdrawn. */
+    private static double latestPrice(RunnerHistory runner, BookSeries book, long asOf) {
+        if (runner.size() == 0 || runner.epochSeconds()[0] > asOf || book.isWithdrawn(runner.runnerId(), asOf)) {
+            return Double.NaN;
+        }
+        return runner.priceAt(asOf);
+    }
+
+    /** @return Each runner's move over the window, for runners priced both at its start (or first priced later) and at the latest point. */
+    private static List<Move> moves(RaceHistory history, BookSeries book, long asOf, int minutes) {
+        List<Move> moves = new ArrayList<>();
+        for (RunnerHistory runner : history.runners()) {
+            double to = latestPrice(runner, book, asOf);
+            double from = runner.priceAt(asOf - minutes * 60L);
+            if (to > 0 && from > 0 && to != from) {
+                moves.add(new Move(runner, from, to, (to - from) / from * 100));
+            }
+        }
+        return moves;
+    }
+
+    private static void writeMoves(JsonWriter out, List<Move> moves) throws IOException {
+        out.beginArray();
+        for (Move move : moves) {
+            out.beginObject();
+            out.name("runnerId").value(move.runner().runnerId());
+            out.name("runnerName").value(move.runner().runnerName());
+            out.name("from").value(move.from());
+            out.name("to").value(move.to());
+            out.name("percent");
+            writeRounded(out, move.percent(), 100);
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    /** Writes a value rounded to 1/scale, or null for {@code NaN}. */
+    private static void writeRounded(JsonWriter out, double value, double scale) throws IOException {
+        if (Double.isNaN(value)) {
+            out.nullValue();
+        } else {
+            out.value(Math.round(value * scale) / scale);
+        }
+    }
+
+    private record Move(RunnerHistory runner, double from, double to, double percent) {}
+}
@@ -0,0 +1,43 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.co.kennah.tkapi.client.Session;
+import uk.co.kennah.tkapi.model.MyRunner;
+import uk.co.kennah.tkapi.process.DataFetcher;
+
+/** A {@link MarketDataClient} backed by the Betfair API through a single long-lived {@link DataFetcher}. */
+public class BetfairClient implements MarketDataClient {
+
+    private final DataFetcher fetcher = new DataFetcher();
+
+    @Override
+    public void login() throws Exception {
+        Session session = fetcher.getSession();
+        session.login();
+        System.out.println("Logged in with session status: " + session.getStatus());
+        if (!"SUCCESS".equals(session.getStatus())) {
+            throw new IllegalStateException("Login failed with status: " + session.getStatus());
+        }
+    }
+
+    @Override
+    public Map<Long, RunnerSnapshot> fetch(LocalDate date) throws Exception {
+        Map<Long, MyRunner> fetched = fetcher.getData(date.format(DateTimeFormatter.ISO_LOCAL_DATE));
+        Map<Long, RunnerSnapshot> horses = new HashMap<>();
+        for (Map.Entry<Long, MyRunner> entry : fetched.entrySet()) {
+            if (entry.getValue() != null) {
+                horses.put(entry.getKey(), RunnerSnapshot.from(entry.getValue()));
+            }
+        }
+        return horses;
+    }
+
+    @Override
+    public void logout() {
+        fetcher.getSession().logout();
+    }
+}
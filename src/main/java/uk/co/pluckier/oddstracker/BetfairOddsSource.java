@@ -0,0 +1,94 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * The live source: the win markets of today and, optionally, the days after it, fetched over long-lived
+ * {@link SessionManager} sessions.
+ * <p>
+ * With {@code oddstracker.raceDays} above 1 (e.g. 2 to add tomorrow's early markets), each day is fetched in
+ * parallel and the results merged into one snapshot. Each day has its own client and session, so no client
+ * is ever used by two fetches at once. A day whose fetch fails is left out of the snapshot, so
+ * the tracker keeps that day's last state instead of recording its runners as gone; only if every day fails
+ * does the fetch fail.
+ */
+public class BetfairOddsSource implements OddsSource {
+
+    /** One session per race day, by offset from today. */
+    private final List<SessionManager> sessionManagers = new ArrayList<>();
+    private final int raceDays;
+    private final ExecutorService fetchers;
+
+    public BetfairOddsSource(Supplier<MarketDataClient> clients) {
+        this(clients, Integer.getInteger("oddstracker.raceDays", 1));
+    }
+
+    /**
+     * @param clients Creates a client for each race day.
+     * @param raceDays How many race days to fetch, starting with today.
+     */
+    public BetfairOddsSource(Supplier<MarketDataClient> clients, int raceDays) {
+        this.raceDays = Math.max(1, raceDays);
+        for (int day = 0; day < this.raceDays; day++) {
+            sessionManagers.add(new SessionManager(clients.get()));
+        }
+        this.fetchers = this.raceDays == 1 ? null : Executors.newFixedThreadPool(this.raceDays, r -> {
+            Thread thread = new Thread(r, "odds-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public MarketSnapshot fetch() throws Exception {
+        LocalDate today = LocalDate.now();
+        if (fetchers == null) {
+            SessionManager.FetchResult result = sessionManagers.get(0).fetch(today);
+            return new MarketSnapshot(LocalDateTime.now(), result.runners(), result.loginNanos(), result.dataNanos());
+        }
+
+        long started = System.nanoTime();
+        List<Future<SessionManager.FetchResult>> days = new ArrayList<>(raceDays);
+        for (int day = 0; day < raceDays; day++) {
+            LocalDate date = today.plusDays(day);
+            SessionManager sessionManager = sessionManagers.get(day);
+            days.add(fetchers.submit(() -> sessionManager.fetch(date)));
+        }
+        Map<Long, RunnerSnapshot> runners = new HashMap<>();
+        long loginNanos = 0;
+        Exception failure = null;
+        for (int day = 0; day < raceDays; day++) {
+            try {
+                SessionManager.FetchResult result = days.get(day).get();
+                runners.putAll(result.runners());
+                loginNanos = Math.max(loginNanos, result.loginNanos());
+            } catch (ExecutionException e) {
+                System.err.println("Fetch for " + today.plusDays(day) + " failed: " + e.getCause().getMessage());
+                failure = failure == null && e.getCause() instanceof Exception cause ? cause : failure;
+            }
+        }
+        if (runners.isEmpty() && failure != null) {
+            throw failure;
+        }
+        // The days were fetched side by side, so the data time is the wall time less the slowest login.
+        return new MarketSnapshot(LocalDateTime.now(), runners, loginNanos, System.nanoTime() - started - loginNanos);
+    }
+
+    @Override
+    public void close() {
+        if (fetchers != null) {
+            fetchers.shutdownNow();
+        }
+        sessionManagers.forEach(SessionManager::close);
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An offline stand-in for the Betfair API, for exercising session handling and the polling pipeline
+ * without credentials. It serves a {@link SyntheticMarket} per race day that drifts a little on every
+ * fetch, simulates login and data latency, and can expire its session after a number of fetches.
+ * Each race day's market is shared by every instance, so a source that gives each day its own client still
+ * sees one consistent market per day.
+ * <p>
+ * Enable with {@code -Doddstracker.fetcher=fake}. Settings: {@code oddstracker.fake.events} (default 30),
+ * {@code oddstracker.fake.runnersPerEvent} (default 10), {@code oddstracker.fake.loginMillis} (default 300),
+ * {@code oddstracker.fake.fetchMillis} (default 500) and {@code oddstracker.fake.sessionFetches}
+ * (fetches before the session expires, default 0 for never).
+ */
+public class FakeMarketDataClient implements MarketDataClient {
+
+    private final int events;
+    private final int runnersPerEvent;
+    private static final Map<LocalDate, SyntheticMarket> MARKETS = new ConcurrentHashMap<>();
+    private final long loginMillis;
+    private final long fetchMillis;
+    private final int sessionFetches;
+    private boolean loggedIn;
+    private int fetchesThisSession;
+
+    public FakeMarketDataClient() {
+        this(Integer.getInteger("oddstracker.fake.events", 30), Integer.getInteger("oddstracker.fake.runnersPerEvent", 10),
+                Long.getLong("oddstracker.fake.loginMillis", 300), Long.getLong("oddstracker.fake.fetchMillis", 500),
+                Integer.getInteger("oddstracker.fake.sessionFetches", 0));
+    }
+
+    public FakeMarketDataClient(int events, int runnersPerEvent, long loginMillis, long fetchMillis, int sessionFetches) {
+        this.events = events;
+        this.runnersPerEvent = runnersPerEvent;
+        this.loginMillis = loginMillis;
+        this.fetchMillis = fetchMillis;
+        this.sessionFetches = sessionFetches;
+    }
+
+    @Override
+    public synchronized void login() throws InterruptedException {
+        Thread.sleep(loginMillis);
+        loggedIn = true;
+        fetchesThisSession = 0;
+    }
+
+    @Override
+    public Map<Long, RunnerSnapshot> fetch(LocalDate date) throws InterruptedException {
+        synchronized (this) {
+            if (!loggedIn || (sessionFetches > 0 && fetchesThisSession >= sessionFetches)) {
+                throw new IllegalStateException("Session expired");
+            }
+            fetchesThisSession++;
+        }
+        Thread.sleep(fetchMillis);
+        // Each day has its own runners, as the same horse rarely runs on consecutive days.
+        return MARKETS.computeIfAbsent(date, d -> new SyntheticMarket(events, runnersPerEvent, 0.3, 42 + d.toEpochDay(),
+                1_000_000L + d.toEpochDay() % 100 * 100_000L)).next(date);
+    }
+
+    @Override
+    public synchronized void logout() {
+        loggedIn = false;
+    }
+}
@@ -0,0 +1,117 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.HistoryIndex.RunnerHistory;
+
+/**
+ * A bounded LRU cache of whole-event histories, weighted by their approximate size in memory, so that races
+ * read back from disk (usually finished ones) are only decoded once however often they are viewed.
+ * <p>
+ * An event's entry is dropped whenever a poll appends points to it. Any invalidation also moves the cache on
+ * a generation, and a history computed before that is not stored, so a read that overlaps a poll can never
+ * leave the cache holding stale history.
+ */
+public class HistoryCache {
+
+    /** Rough bytes per cached history and runner, and per slot of a runner's timestamp and price arrays. */
+    private static final int EVENT_BYTES = 96;
+    private static final int RUNNER_BYTES = 96;
+    private static final int POINT_BYTES = Long.BYTES + Double.BYTES;
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long generation;
+    private long hits;
+    private long misses;
+
+    public HistoryCache() {
+        this(Long.getLong("oddstracker.history.cacheMegabytes", 64) * 1024 * 1024);
+    }
+
+    /** @param maxBytes The most the cached histories may weigh; 0 disables the cache. */
+    public HistoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** @return The cached history for an event, or null. */
+    public synchronized RaceHistory get(String eventIdentifier) {
+        Entry entry = entries.get(eventIdentifier);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.history();
+    }
+
+    /** @return The current generation, to pass to {@link #put} once a history computed from here has been built. */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a history, evicting the least recently used entries to make room. A history heavier than the whole
+     * cache is not stored.
+     * @param generation The generation read before the history was computed.
+     */
+    public synchronized void put(RaceHistory history, long generation) {
+        long weight = weigh(history);
+        if (generation != this.generation || weight > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(history.eventIdentifier(), new Entry(history, weight));
+        bytes += weight - (previous != null ? previous.weight() : 0);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().weight();
+            eldest.remove();
+        }
+    }
+
+    /** Drops the cached histories of events that have just had points appended. */
+    public synchronized void invalidate(Collection<String> eventIdentifiers) {
+        generation++;
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (String eventIdentifier : eventIdentifiers) {
+            Entry removed = entries.remove(eventIdentifier);
+            if (removed != null) {
+                bytes -= removed.weight();
+            }
+        }
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    private static long weigh(RaceHistory history) {
+        long weight = EVENT_BYTES + 2L * history.eventIdentifier().length();
+        for (RunnerHistory runner : history.runners()) {
+            weight += RUNNER_BYTES + (runner.runnerName() != null ? 2L * runner.runnerName().length() : 0)
+                    + (long) runner.epochSeconds().length * POINT_BYTES;
+        }
+        return weight;
+    }
+
+    private record Entry(RaceHistory history, long weight) {}
+}
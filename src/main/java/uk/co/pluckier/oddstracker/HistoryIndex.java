@@ -0,0 +1,253 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory index of odds history, keyed by event identifier.
+ * Each snapshot is appended once as it lands, so answering a history request is a lookup
+ * rather than a scan of every snapshot file on disk.
+ * <p>
+ * A runner's points live in parallel primitive arrays that are only ever appended to past their current
+ * size, and replaced rather than shifted when points are dropped. A {@link RaceHistory} can therefore share
+ * the arrays as they stood when it was taken, and be read without the lock while polls keep appending.
+ */
+public class HistoryIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, EventHistory> events = new ConcurrentHashMap<>();
+
+    /**
+     * Appends every priced runner in a snapshot to the history of its event.
+     * @param epochSecond The time the snapshot was taken.
+     * @param snapshot The full market snapshot, keyed by runner id.
+     */
+    public void append(long epochSecond, Map<Long, RunnerSnapshot> snapshot) {
+        for (Map.Entry<Long, RunnerSnapshot> entry : snapshot.entrySet()) {
+            RunnerSnapshot runner = entry.getValue();
+            if (runner == null || runner.event() == null || !runner.isPriced()) {
+                continue;
+            }
+            events.computeIfAbsent(runner.event(), e -> new EventHistory())
+                    .append(entry.getKey(), runner.name(), epochSecond, runner.odds());
+        }
+    }
+
+    /**
+     * Takes the history of a single event as it stands. This costs one small record per runner, however many
+     * points have been recorded.
+     * @param eventIdentifier The full event string, as reported by {@link RunnerSnapshot#event()}.
+     * @return The history, with an empty runner list if nothing has been recorded for the event.
+     */
+    public RaceHistory getRaceHistory(String eventIdentifier) {
+        EventHistory eventHistory = events.get(eventIdentifier);
+        if (eventHistory == null) {
+            return new RaceHistory(eventIdentifier, List.of());
+        }
+        return new RaceHistory(eventIdentifier, eventHistory.toRunnerHistories());
+    }
+
+    /**
+     * Looks up the price a runner had at a given time.
+     * @return The last price recorded at or before the time, the earliest price if the runner's history starts after
+     *         it, or {@code NaN} if nothing has been recorded for the runner.
+     */
+    public double priceAt(String eventIdentifier, long runnerId, long epochSecond) {
+        EventHistory eventHistory = events.get(eventIdentifier);
+        return eventHistory == null ? Double.NaN : eventHistory.priceAt(runnerId, epochSecond);
+    }
+
+    /**
+     * Appends everything recorded in a later index onto this one, e.g. when merging indexes built in parallel.
+     * @param later An index whose points are all newer than the points in this one.
+     */
+    public void appendAll(HistoryIndex later) {
+        later.events.forEach((event, history) -> events.computeIfAbsent(event, e -> new EventHistory()).appendAll(history));
+    }
+
+    /**
+     * Appends one event's points from a later index onto this one, e.g. today's history after earlier days read from disk.
+     * @param later An index whose points for the event are all newer than the points in this one.
+     */
+    public void appendAll(HistoryIndex later, String eventIdentifier) {
+        EventHistory history = later.events.get(eventIdentifier);
+        if (history != null) {
+            events.computeIfAbsent(eventIdentifier, e -> new EventHistory()).appendAll(history);
+        }
+    }
+
+    /**
+     * Drops every point older than a given time, and any event left with none, e.g. once a race day has been sealed.
+     * @param epochSecond The earliest time to keep.
+     */
+    public void removeBefore(long epochSecond) {
+        events.values().removeIf(history -> history.removeBefore(epochSecond));
+    }
+
+    /**
+     * Lists the events with any point older than a given time, i.e. those that {@link #removeBefore} would trim.
+     * @return The event strings, in no particular order.
+     */
+    public List<String> eventsBefore(long epochSecond) {
+        List<String> before = new ArrayList<>();
+        events.forEach((event, history) -> {
+            if (history.startsBefore(epochSecond)) {
+                before.add(event);
+            }
+        });
+        return before;
+    }
+
+    /** @return True if anything has been recorded for the event. */
+    public boolean contains(String eventIdentifier) {
+        return events.containsKey(eventIdentifier);
+    }
+
+    public int eventCount() {
+        return events.size();
+    }
+
+    /** The history of every runner in a single event. Appends and reads are guarded by the instance lock. */
+    private static final class EventHistory {
+        private final Map<Long, RunnerSeries> runners = new LinkedHashMap<>();
+
+        synchronized void append(long runnerId, String name, long epochSecond, double odds) {
+            runners.computeIfAbsent(runnerId, id -> new RunnerSeries()).append(name, epochSecond, odds);
+        }
+
+        synchronized void appendAll(EventHistory later) {
+            synchronized (later) {
+                later.runners.forEach((runnerId, series) -> runners.computeIfAbsent(runnerId, id -> new RunnerSeries()).appendAll(series));
+            }
+        }
+
+        /** @return True if nothing is left. */
+        synchronized boolean removeBefore(long epochSecond) {
+            runners.values().removeIf(series -> series.removeBefore(epochSecond));
+            return runners.isEmpty();
+        }
+
+        synchronized boolean startsBefore(long epochSecond) {
+            for (RunnerSeries series : runners.values()) {
+                if (series.size > 0 && series.epochSeconds[0] < epochSecond) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized double priceAt(long runnerId, long epochSecond) {
+            RunnerSeries series = runners.get(runnerId);
+            return series == null ? Double.NaN : series.priceAt(epochSecond);
+        }
+
+        synchronized List<RunnerHistory> toRunnerHistories() {
+            List<RunnerHistory> histories = new ArrayList<>(runners.size());
+            for (Map.Entry<Long, RunnerSeries> entry : runners.entrySet()) {
+                RunnerSeries series = entry.getValue();
+                histories.add(new RunnerHistory(entry.getKey(), series.name, series.epochSeconds, series.odds, series.size));
+            }
+            return histories;
+        }
+    }
+
+    /** A growable pair of parallel primitive arrays holding one runner's timestamps and prices. */
+    private static final class RunnerSeries {
+        private String name;
+        private long[] epochSeconds = new long[INITIAL_CAPACITY];
+        private double[] odds = new double[INITIAL_CAPACITY];
+        private int size;
+
+        void append(String name, long epochSecond, double price) {
+            ensureCapacity(size + 1);
+            epochSeconds[size] = epochSecond;
+            odds[size] = price;
+            size++;
+            // Keep the most recent name in case it changes (unlikely but safe).
+            this.name = name;
+        }
+
+        void appendAll(RunnerSeries later) {
+            ensureCapacity(size + later.size);
+            System.arraycopy(later.epochSeconds, 0, epochSeconds, size, later.size);
+            System.arraycopy(later.odds, 0, odds, size, later.size);
+            size += later.size;
+            this.name = later.name;
+        }
+
+        /** @return True if nothing is left. */
+        boolean removeBefore(long epochSecond) {
+            int first = 0;
+            while (first < size && epochSeconds[first] < epochSecond) {
+                first++;
+            }
+            if (first > 0) {
+                // Copy rather than shift, as a RaceHistory taken earlier may still be reading the old arrays.
+                int capacity = Math.max(INITIAL_CAPACITY, size - first);
+                epochSeconds = Arrays.copyOfRange(epochSeconds, first, first + capacity);
+                odds = Arrays.copyOfRange(odds, first, first + capacity);
+                size -= first;
+            }
+            return size == 0;
+        }
+
+        double priceAt(long epochSecond) {
+            return HistoryIndex.priceAt(epochSeconds, odds, size, epochSecond);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > epochSeconds.length) {
+                int newLength = Math.max(capacity, epochSeconds.length * 2);
+                epochSeconds = Arrays.copyOf(epochSeconds, newLength);
+                odds = Arrays.copyOf(odds, newLength);
+            }
+        }
+    }
+
+    /**
+     * Finds the price in a series at a given time: the last point at or before it (the last of several in the same
+     * second), or the first point if the series starts after it.
+     * @return The price, or {@code NaN} if the series is empty.
+     */
+    static double priceAt(long[] epochSeconds, double[] odds, int size, long epochSecond) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        int index = Arrays.binarySearch(epochSeconds, 0, size, epochSecond);
+        if (index < 0) {
+            index = Math.max(0, -index - 2);
+        }
+        while (index + 1 < size && epochSeconds[index + 1] == epochSeconds[index]) {
+            index++;
+        }
+        return odds[index];
+    }
+
+    /** One event's history as it stood when it was taken. */
+    public record RaceHistory(String eventIdentifier, List<RunnerHistory> runners) {
+        /** @return The number of points across every runner. */
+        public long pointCount() {
+            long points = 0;
+            for (RunnerHistory runner : runners) {
+                points += runner.size();
+            }
+            return points;
+        }
+    }
+
+    /**
+     * One runner's history: the first {@code size} entries of the arrays, oldest first. The arrays belong to the
+     * index and must not be modified.
+     */
+    public record RunnerHistory(long runnerId, String runnerName, long[] epochSeconds, double[] odds, int size) {
+        /** @return The price at a given time, as {@link HistoryIndex#priceAt(String, long, long)}. */
+        public double priceAt(long epochSecond) {
+            return HistoryIndex.priceAt(epochSeconds, odds, size, epochSecond);
+        }
+    }
+}
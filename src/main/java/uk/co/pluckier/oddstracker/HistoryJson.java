@@ -0,0 +1,71 @@
+package uk.co.pluckier.oddstracker;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.HistoryIndex.RunnerHistory;
+
+/**
+ * Writes race history as JSON straight from the index's primitive arrays, so a response costs the same memory
+ * however many points it holds. Timestamps are epoch milliseconds.
+ * <p>
+ * The default format has a point object per poll:
+ * <pre>{"eventIdentifier":"...","runnersHistory":[{"runnerId":1,"runnerName":"...","history":[{"timestamp":1714568400000,"odds":3.5},...]}]}</pre>
+ * The compact format, for chart clients, gives each runner parallel arrays instead:
+ * <pre>{"eventIdentifier":"...","runnersHistory":[{"runnerId":1,"runnerName":"...","timestamps":[1714568400000,...],"odds":[3.5,...]}]}</pre>
+ */
+final class HistoryJson {
+
+    private HistoryJson() {
+    }
+
+    /** Writes one race's history as a JSON object. */
+    static void write(JsonWriter out, RaceHistory history, boolean compact) throws IOException {
+        out.beginObject();
+        out.name("eventIdentifier").value(history.eventIdentifier());
+        out.name("runnersHistory").beginArray();
+        for (RunnerHistory runner : history.runners()) {
+            out.beginObject();
+            out.name("runnerId").value(runner.runnerId());
+            out.name("runnerName").value(runner.runnerName());
+            if (compact) {
+                writeCompact(out, runner);
+            } else {
+                writePoints(out, runner);
+            }
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private static void writePoints(JsonWriter out, RunnerHistory runner) throws IOException {
+        long[] epochSeconds = runner.epochSeconds();
+        double[] odds = runner.odds();
+        out.name("history").beginArray();
+        for (int i = 0; i < runner.size(); i++) {
+            out.beginObject();
+            out.name("timestamp").value(epochSeconds[i] * 1000);
+            out.name("odds").value(odds[i]);
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    private static void writeCompact(JsonWriter out, RunnerHistory runner) throws IOException {
+        long[] epochSeconds = runner.epochSeconds();
+        double[] odds = runner.odds();
+        out.name("timestamps").beginArray();
+        for (int i = 0; i < runner.size(); i++) {
+            out.value(epochSeconds[i] * 1000);
+        }
+        out.endArray();
+        out.name("odds").beginArray();
+        for (int i = 0; i < runner.size(); i++) {
+            out.value(odds[i]);
+        }
+        out.endArray();
+    }
+}
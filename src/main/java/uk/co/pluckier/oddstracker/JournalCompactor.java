@@ -0,0 +1,212 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the journal directory bounded by rolling finished days up into archives and expiring old ones.
+ * <p>
+ * Once a day is over, its live segments (and any archive already written for it) are merged into a
+ * single {@code archive_yyyyMMdd.odj}. Within the last {@code fullResolutionMinutes} before each race's
+ * off every poll is kept for that race's runners; outside that window a runner is only sampled when its
+ * record changes, and polls where nothing was sampled are dropped. Archives are read back rarely and
+ * usually a whole race at a time, so they are written with fewer checkpoints than live segments.
+ * <p>
+ * The archive is written beside the segments under a temporary name and renamed into place before the
+ * segments are deleted, so readers always see either the segments or the archive. The day being
+ * written by the journal is never touched.
+ * <p>
+ * Archives older than the retention period are deleted, or moved to a cold directory when one is set.
+ * <p>
+ * Settings (system properties):
+ * <ul>
+ *   <li>{@code oddstracker.compaction.intervalMinutes} - how often to look for work, default 60 (0 disables)</li>
+ *   <li>{@code oddstracker.compaction.fullResolutionMinutes} - the window before each off kept at full resolution, default 30</li>
+ *   <li>{@code oddstracker.compaction.checkpointInterval} - polls between checkpoints in an archive, default 120</li>
+ *   <li>{@code oddstracker.retention.days} - days of history to keep, default 0 for forever</li>
+ *   <li>{@code oddstracker.retention.coldDir} - where to move expired files instead of deleting them</li>
+ * </ul>
+ */
+public class JournalCompactor implements AutoCloseable {
+
+    private final File directory;
+    private final Supplier<File> activeSegment;
+    private final Runnable onChange;
+    private final Duration fullResolution;
+    private final int retentionDays;
+    private final File coldDir;
+    private final ZoneId eventZone;
+    private final int checkpointInterval;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param activeSegment Supplies the segment the journal currently has open, or null.
+     * @param onChange Run after each pass, so readers of the directory can pick up the files it replaced.
+     */
+    public JournalCompactor(File directory, Supplier<File> activeSegment, Runnable onChange) {
+        this(directory, activeSegment, onChange,
+                Duration.ofMinutes(Long.getLong("oddstracker.compaction.fullResolutionMinutes", 30)),
+                Integer.getInteger("oddstracker.retention.days", 0),
+                System.getProperty("oddstracker.retention.coldDir") == null ? null : new File(System.getProperty("oddstracker.retention.coldDir")),
+                ZoneId.of(System.getProperty("oddstracker.eventZone", "UTC")),
+                Integer.getInteger("oddstracker.compaction.checkpointInterval", 120));
+    }
+
+    public JournalCompactor(File directory, Supplier<File> activeSegment, Runnable onChange, Duration fullResolution,
+                            int retentionDays, File coldDir, ZoneId eventZone, int checkpointInterval) {
+        this.directory = directory;
+        this.activeSegment = activeSegment;
+        this.onChange = onChange;
+        this.fullResolution = fullResolution;
+        this.retentionDays = retentionDays;
+        this.coldDir = coldDir;
+        this.eventZone = eventZone;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /** Runs a pass shortly after startup and then every {@code oddstracker.compaction.intervalMinutes}. */
+    public void start() {
+        long intervalMinutes = Long.getLong("oddstracker.compaction.intervalMinutes", 60);
+        if (intervalMinutes <= 0) {
+            System.out.println("Journal compaction is disabled.");
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::runQuietly, 1, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private void runQuietly() {
+        try {
+            compact(LocalDate.now());
+        } catch (Exception e) {
+            System.err.println("Error compacting journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compacts every day before {@code today} that still has live segments, then applies retention.
+     * @param today The first day that is not yet finished.
+     */
+    public synchronized void compact(LocalDate today) throws IOException {
+        try {
+            File active = activeSegment.get();
+            Map<LocalDate, List<File>> days = new TreeMap<>();
+            for (File file : OddsJournal.listAll(directory)) {
+                LocalDate day = OddsJournal.dateOf(file);
+                if (day != null) {
+                    days.computeIfAbsent(day, d -> new ArrayList<>()).add(file);
+                }
+            }
+            for (Map.Entry<LocalDate, List<File>> entry : days.entrySet()) {
+                List<File> files = entry.getValue();
+                boolean archived = files.size() == 1 && OddsJournal.isArchive(files.get(0));
+                if (!entry.getKey().isBefore(today) || archived || (active != null && files.contains(active))) {
+                    continue;
+                }
+                compactDay(entry.getKey(), files);
+            }
+            if (retentionDays > 0) {
+                expire(today.minusDays(retentionDays), active);
+            }
+        } finally {
+            onChange.run();
+        }
+    }
+
+    /** Merges one day's files, oldest first, into its archive and removes the segments it replaced. */
+    private void compactDay(LocalDate day, List<File> files) throws IOException {
+        long started = System.nanoTime();
+        File archive = OddsJournal.archiveFile(directory, day);
+        File tmp = new File(directory, archive.getName() + ".tmp");
+        Map<String, Optional<Instant>> offTimes = new HashMap<>();
+        long[] lastEpochSecond = {Long.MIN_VALUE};
+        int[] polls = new int[2];
+        long bytesIn = 0;
+        try (SegmentWriter writer = new SegmentWriter(tmp, checkpointInterval)) {
+            for (File file : files) {
+                bytesIn += file.length();
+                JournalReader.replay(file, poll -> {
+                    // Keep the archive in time order, which also skips polls already merged by an interrupted pass.
+                    if (poll.epochSecond() <= lastEpochSecond[0]) {
+                        return;
+                    }
+                    lastEpochSecond[0] = poll.epochSecond();
+                    Instant polled = Instant.ofEpochSecond(poll.epochSecond());
+                    long bytesBefore = writer.getBytesWritten();
+                    try {
+                        writer.writePoll(poll.epochSecond(), poll.state(), event -> {
+                            Optional<Instant> off = offTimes.computeIfAbsent(event, e -> PollScheduler.parseOffTime(e, eventZone));
+                            return off.isPresent() && !polled.isAfter(off.get()) && !polled.isBefore(off.get().minus(fullResolution));
+                        });
+                        polls[0]++;
+                        if (writer.getBytesWritten() > bytesBefore) {
+                            polls[1]++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e instanceof UncheckedIOException unchecked ? unchecked.getCause() : (IOException) e;
+        }
+        if (polls[0] == 0) {
+            Files.delete(tmp.toPath());
+            System.err.println("No readable polls for " + day + "; leaving its segments in place.");
+            return;
+        }
+
+        Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (File file : files) {
+            if (!file.equals(archive)) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        System.out.printf("Compacted %s: %d files, %d of %d polls kept, %d KB -> %d KB in %d ms%n",
+                day, files.size(), polls[1], polls[0], bytesIn / 1024, archive.length() / 1024, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /** Deletes or moves to the cold directory every file for a day before the cutoff. */
+    private void expire(LocalDate cutoff, File active) throws IOException {
+        for (File file : OddsJournal.listAll(directory)) {
+            LocalDate day = OddsJournal.dateOf(file);
+            if (day == null || !day.isBefore(cutoff) || file.equals(active)) {
+                continue;
+            }
+            if (coldDir != null) {
+                coldDir.mkdirs();
+                Files.move(file.toPath(), new File(coldDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Moved expired journal file " + file.getName() + " to " + coldDir);
+            } else {
+                Files.delete(file.toPath());
+                System.out.println("Deleted expired journal file " + file.getName());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,70 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.kennah.tkapi.model.MyRunner;
+
+/**
+ * A one-shot tool that converts a directory of legacy {@code odds_yyyyMMdd_HHmmss.ser} snapshots
+ * into an {@link OddsJournal}. The original files are left untouched.
+ * <p>
+ * Usage: {@code java -cp odds-tracker.jar uk.co.pluckier.oddstracker.JournalMigrator [sourceDir] [targetDir]}
+ * Both directories default to {@code odds_snapshots}.
+ */
+public class JournalMigrator {
+
+    private static final DateTimeFormatter LEGACY_FILENAME_PARSER = DateTimeFormatter.ofPattern("'odds_'yyyyMMdd_HHmmss'.ser'");
+
+    public static void main(String[] args) throws IOException {
+        File sourceDir = new File(args.length > 0 ? args[0] : OddsTracker.SNAPSHOT_DIR);
+        File targetDir = new File(args.length > 1 ? args[1] : OddsTracker.SNAPSHOT_DIR);
+
+        File[] files = sourceDir.listFiles((d, name) -> name.startsWith("odds_") && name.endsWith(".ser"));
+        if (files == null || files.length == 0) {
+            System.out.println("No legacy snapshot files found in " + sourceDir.getPath());
+            return;
+        }
+        List<File> legacyFiles = new ArrayList<>(Arrays.asList(files));
+        legacyFiles.sort(java.util.Comparator.comparing(File::getName));
+
+        int migrated = 0;
+        long entries = 0;
+        try (OddsJournal journal = new OddsJournal(targetDir)) {
+            for (File file : legacyFiles) {
+                try {
+                    LocalDateTime timestamp = LocalDateTime.parse(file.getName(), LEGACY_FILENAME_PARSER);
+                    entries += journal.append(timestamp, readLegacySnapshot(file));
+                    migrated++;
+                } catch (Exception e) {
+                    System.err.println("Skipping " + file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.printf("Migrated %d of %d snapshot files (%d journal entries) into %s%n",
+                migrated, legacyFiles.size(), entries, targetDir.getPath());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, RunnerSnapshot> readLegacySnapshot(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            Map<Long, MyRunner> legacy = (Map<Long, MyRunner>) ois.readObject();
+            Map<Long, RunnerSnapshot> snapshot = new HashMap<>(legacy.size() * 2);
+            legacy.forEach((runnerId, runner) -> {
+                if (runner != null) {
+                    snapshot.put(runnerId, RunnerSnapshot.from(runner));
+                }
+            });
+            return snapshot;
+        }
+    }
+}
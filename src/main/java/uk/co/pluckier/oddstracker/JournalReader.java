@@ -0,0 +1,178 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads {@link OddsJournal} segments and archives front to back, reconstructing the full market after every poll.
+ * Segments are memory-mapped rather than copied onto the heap through a stream.
+ */
+public class JournalReader {
+
+    /** The size of a poll record header after its tag: long epochSecond, byte flags, int count. */
+    static final int POLL_HEADER_BYTES = Long.BYTES + Byte.BYTES + Integer.BYTES;
+
+    /** Receives each poll in a segment, in the order it was written. */
+    public interface PollListener {
+        void onPoll(JournalPoll poll);
+    }
+
+    /**
+     * A single decoded poll.
+     * @param epochSecond The time the poll was taken.
+     * @param checkpoint True if the record held the full market rather than only the changes.
+     * @param sparse True if the poll was compacted, so that only some runners were sampled at this time.
+     * @param changes The runners written in this record (new, re-priced or otherwise changed).
+     * @param removed The runners that dropped out of the market in this poll.
+     * @param sampledEvents For a sparse poll, the events whose runners were all sampled; empty otherwise.
+     * @param state The full market after this poll. This map is reused by the reader and is only valid during the callback.
+     */
+    public record JournalPoll(long epochSecond, boolean checkpoint, boolean sparse, Map<Long, RunnerSnapshot> changes,
+                              List<Long> removed, Set<String> sampledEvents, Map<Long, RunnerSnapshot> state) {
+
+        /** @return The runners with a history point at this time: the whole market, or for a sparse poll the changes plus the sampled events. */
+        public Map<Long, RunnerSnapshot> sampled() {
+            if (!sparse) {
+                return state;
+            }
+            Map<Long, RunnerSnapshot> sampled = new HashMap<>(changes);
+            if (!sampledEvents.isEmpty()) {
+                state.forEach((runnerId, runner) -> {
+                    if (sampledEvents.contains(runner.event())) {
+                        sampled.put(runnerId, runner);
+                    }
+                });
+            }
+            return sampled;
+        }
+    }
+
+    private JournalReader() {
+    }
+
+    /**
+     * Replays every poll in a segment. A truncated final record (e.g. from a crash mid-write) is ignored.
+     * @param segment The segment file to read.
+     * @param listener The callback for each poll.
+     */
+    public static void replay(File segment, PollListener listener) throws IOException {
+        ByteBuffer buffer = map(segment);
+        checkHeader(buffer, segment.getName());
+
+        List<String> dictionary = new ArrayList<>();
+        Map<Long, RunnerSnapshot> state = new HashMap<>();
+        boolean truncated = false;
+        while (buffer.hasRemaining()) {
+            byte tag = buffer.get();
+            if (tag == OddsJournal.TAG_STRING) {
+                if (buffer.remaining() < 2 * Integer.BYTES) {
+                    truncated = true;
+                    break;
+                }
+                int id = buffer.getInt();
+                int length = buffer.getInt();
+                if (buffer.remaining() < length) {
+                    truncated = true;
+                    break;
+                }
+                while (dictionary.size() <= id) {
+                    dictionary.add(null);
+                }
+                dictionary.set(id, readString(buffer, length));
+            } else if (tag == OddsJournal.TAG_POLL) {
+                if (buffer.remaining() < POLL_HEADER_BYTES) {
+                    truncated = true;
+                    break;
+                }
+                long epochSecond = buffer.getLong();
+                byte flags = buffer.get();
+                boolean checkpoint = (flags & OddsJournal.FLAG_CHECKPOINT) != 0;
+                int count = buffer.getInt();
+                if (buffer.remaining() < (long) count * OddsJournal.ENTRY_BYTES) {
+                    truncated = true;
+                    break;
+                }
+                Map<Long, RunnerSnapshot> changes = new HashMap<>(count * 2);
+                List<Long> removed = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    long runnerId = buffer.getLong();
+                    double odds = buffer.getDouble();
+                    int nameId = buffer.getInt();
+                    int eventId = buffer.getInt();
+                    if (nameId == OddsJournal.REMOVED) {
+                        removed.add(runnerId);
+                    } else {
+                        changes.put(runnerId, new RunnerSnapshot(lookup(dictionary, nameId), Double.isNaN(odds) ? null : odds, lookup(dictionary, eventId)));
+                    }
+                }
+                boolean sparse = (flags & OddsJournal.FLAG_SPARSE) != 0;
+                Set<String> sampledEvents = Set.of();
+                if (sparse) {
+                    if (buffer.remaining() < Integer.BYTES) {
+                        truncated = true;
+                        break;
+                    }
+                    int eventCount = buffer.getInt();
+                    if (buffer.remaining() < (long) eventCount * Integer.BYTES) {
+                        truncated = true;
+                        break;
+                    }
+                    sampledEvents = new HashSet<>();
+                    for (int i = 0; i < eventCount; i++) {
+                        sampledEvents.add(lookup(dictionary, buffer.getInt()));
+                    }
+                }
+                if (checkpoint) {
+                    state.clear();
+                }
+                state.putAll(changes);
+                removed.forEach(state::remove);
+                listener.onPoll(new JournalPoll(epochSecond, checkpoint, sparse, changes, removed, sampledEvents, state));
+            } else {
+                throw new IOException("Corrupt record tag " + tag + " in " + segment.getName());
+            }
+        }
+        if (truncated) {
+            System.err.println("Ignoring truncated final record in " + segment.getName());
+        }
+    }
+
+    /** Maps a whole segment read-only. The mapping stays valid after the channel is closed. */
+    static MappedByteBuffer map(File segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Validates the segment header and leaves the buffer positioned at the first record. */
+    static void checkHeader(ByteBuffer buffer, String name) throws IOException {
+        if (buffer.remaining() < Integer.BYTES + Short.BYTES || buffer.getInt() != OddsJournal.MAGIC) {
+            throw new IOException("Not an odds journal: " + name);
+        }
+        short version = buffer.getShort();
+        if (version != OddsJournal.VERSION) {
+            throw new IOException("Unsupported journal version " + version + " in " + name);
+        }
+    }
+
+    static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static String lookup(List<String> dictionary, int id) {
+        return id == OddsJournal.NULL_STRING ? null : dictionary.get(id);
+    }
+}
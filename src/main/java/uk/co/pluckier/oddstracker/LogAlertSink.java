@@ -0,0 +1,15 @@
+package uk.co.pluckier.oddstracker;
+
+/** Writes each alert to standard output, alongside the poller's own update lines. */
+public class LogAlertSink implements AlertSink {
+
+    @Override
+    public void deliver(Alert alert) {
+        System.out.printf("ALERT [%s] %s%n", alert.ruleId(), alert.message());
+    }
+
+    @Override
+    public String name() {
+        return "log";
+    }
+}
@@ -0,0 +1,91 @@
+package uk.co.pluckier.oddstracker;
+
+/**
+ * An open-addressing (linear probing) hash map from {@code long} keys to non-negative {@code int} values,
+ * with no boxing.
+ * <p>
+ * It has a single writer, and keys are only ever added, never changed or removed. That lets other threads
+ * look up, without locking, any key whose insertion was published to them (e.g. by a volatile write made
+ * after the put): the probe path to such a key was already filled when it was inserted, and a resize builds
+ * a complete new table before swapping it in.
+ */
+final class LongIntHashMap {
+
+    private static final class Table {
+        private final long[] keys;
+        /** Values are stored plus one, so that zero marks an empty slot whatever the key. */
+        private final int[] values;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+        }
+    }
+
+    private volatile Table table;
+    private int size;
+
+    LongIntHashMap(int expectedSize) {
+        this.table = new Table(Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1);
+    }
+
+    /** @return The value for the key, or -1 if it has none. */
+    int get(long key) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int stored = t.values[i];
+            if (stored == 0) {
+                return -1;
+            }
+            if (t.keys[i] == key) {
+                return stored - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds a key that is not already present. Only the writer thread may call this.
+     * @param value A non-negative value.
+     */
+    void putNew(long key, int value) {
+        Table t = table;
+        if ((size + 1) * 2 > t.keys.length) {
+            t = resize(t);
+        }
+        insert(t, key, value + 1);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Table resize(Table old) {
+        Table bigger = new Table(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.values[i] != 0) {
+                insert(bigger, old.keys[i], old.values[i]);
+            }
+        }
+        table = bigger;
+        return bigger;
+    }
+
+    private static void insert(Table t, long key, int storedValue) {
+        int mask = t.keys.length - 1;
+        int i = mix(key) & mask;
+        while (t.values[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        // Key before value: a reader only trusts a key once it sees the slot as occupied.
+        t.keys[i] = key;
+        t.values[i] = storedValue;
+    }
+
+    /** Spreads sequential ids (as selection ids tend to be) across the table. */
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
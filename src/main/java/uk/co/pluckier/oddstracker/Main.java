@@ -1,7 +1,9 @@
 package uk.co.pluckier.oddstracker;
 
+import java.io.IOException;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         OddsTracker poller = new OddsTracker();
         poller.startPolling();
     }
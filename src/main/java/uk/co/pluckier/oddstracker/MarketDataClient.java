@@ -0,0 +1,26 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * The calls the tracker makes against a betting exchange: authenticate, fetch a day's win market, and log out.
+ * {@link SessionManager} decides when to log in; implementations only perform the calls.
+ */
+public interface MarketDataClient {
+
+    /**
+     * Authenticates a new session.
+     * @throws Exception If the login fails or is rejected.
+     */
+    void login() throws Exception;
+
+    /**
+     * Fetches every runner for a race day using the current session.
+     * @throws Exception If the fetch fails, including because the session has expired.
+     */
+    Map<Long, RunnerSnapshot> fetch(LocalDate date) throws Exception;
+
+    /** Ends the current session, if there is one. */
+    void logout();
+}
@@ -0,0 +1,165 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * An immutable view of one race day's market after one poll. The poller builds a new one per poll and publishes
+ * it through a single volatile reference, so a reader that takes one {@code MarketState} sees the current,
+ * previous, baseline and last-known records of the same poll, with no locking.
+ * <p>
+ * Each race day has its own {@link RunnerRegistry}, which every store of that day's states is indexed by, so a
+ * day that is over can be dropped whole. Nothing is modified once published.
+ * Building the next state reuses any store that did not change and copies the rest, so a poll that adds no
+ * runners shares the baseline and race groupings with its predecessor.
+ */
+public final class MarketState {
+
+    private final LocalDate raceDate;
+    private final LocalDateTime timestamp;
+    private final RunnerStore current;
+    private final RunnerStore previous;
+    private final RunnerStore initial;
+    private final RunnerStore lastKnown;
+    private final double[] lastMovements;
+    private final Map<String, int[]> racesByEvent;
+    private final int[] changedSlots;
+
+    /**
+     * @param raceDate The race day this state covers.
+     * @param timestamp The time of the poll, or null for the state rebuilt at startup.
+     * @param current The runners in this poll.
+     * @param previous The runners in the poll before.
+     * @param initial Each runner's baseline record: its first priced appearance.
+     * @param lastKnown Each runner's most recent record, including runners no longer in the market.
+     * @param lastMovements Each runner's most recent price change by slot, zero if it has never moved. Not copied.
+     * @param racesByEvent The slots of the priced baseline runners of each event. Not copied.
+     * @param changedSlots The slots of the runners whose record changed in this poll. Not copied.
+     */
+    MarketState(LocalDate raceDate, LocalDateTime timestamp, RunnerStore current, RunnerStore previous, RunnerStore initial, RunnerStore lastKnown,
+                double[] lastMovements, Map<String, int[]> racesByEvent, int[] changedSlots) {
+        this.raceDate = raceDate;
+        this.timestamp = timestamp;
+        this.current = current;
+        this.previous = previous;
+        this.initial = initial;
+        this.lastKnown = lastKnown;
+        this.lastMovements = lastMovements;
+        this.racesByEvent = racesByEvent;
+        this.changedSlots = changedSlots;
+    }
+
+    /** @return A state with no runners yet, for a race day seen for the first time. */
+    public static MarketState empty(LocalDate raceDate) {
+        RunnerStore empty = RunnerStore.empty(new RunnerRegistry(64));
+        return new MarketState(raceDate, null, empty, empty, empty, empty, new double[0], Map.of(), new int[0]);
+    }
+
+    /**
+     * Builds one race day's state rebuilt from the journal at startup, where the last recorded poll is both current
+     * and previous.
+     * @param undated The race day for runners whose event does not name one.
+     */
+    public static MarketState fromStartup(StartupLoader.StartupState startup, LocalDate raceDate, LocalDate undated) {
+        Predicate<RunnerSnapshot> onDay = runner -> raceDate.equals(Objects.requireNonNullElse(runner.raceDate(), undated));
+        RunnerRegistry registry = new RunnerRegistry(Math.max(startup.lastKnownOdds().size(), startup.initialOdds().size()));
+        RunnerStore last = toStore(registry, startup.previousOdds(), onDay);
+        RunnerStore initial = toStore(registry, startup.initialOdds(), onDay);
+        RunnerStore lastKnown = toStore(registry, startup.lastKnownOdds(), onDay);
+        double[] movements = new double[registry.size()];
+        startup.lastRecordedMovements().forEach((runnerId, movement) -> {
+            int slot = registry.find(runnerId);
+            if (slot >= 0) {
+                movements[slot] = movement;
+            }
+        });
+        return new MarketState(raceDate, null, last, last, initial, lastKnown, movements, groupByEvent(initial), new int[0]);
+    }
+
+    private static RunnerStore toStore(RunnerRegistry registry, Map<Long, RunnerSnapshot> runners, Predicate<RunnerSnapshot> filter) {
+        RunnerStore.Builder builder = new RunnerStore.Builder(registry, registry.size() + runners.size());
+        runners.forEach((runnerId, runner) -> {
+            if (filter.test(runner)) {
+                builder.put(registry.register(runnerId), runner.odds() != null ? runner.odds() : Double.NaN,
+                        registry.intern(runner.name()), registry.intern(runner.event()));
+            }
+        });
+        return builder.build();
+    }
+
+    /** Groups the priced baseline runners with an event by event, in runner id order. */
+    static Map<String, int[]> groupByEvent(RunnerStore initial) {
+        Map<String, List<Integer>> races = new TreeMap<>();
+        initial.forEach(slot -> {
+            String event = initial.event(slot);
+            if (event != null && !event.isEmpty() && initial.isPriced(slot)) {
+                races.computeIfAbsent(event, e -> new ArrayList<>()).add(slot);
+            }
+        });
+        Map<String, int[]> grouped = new TreeMap<>();
+        RunnerRegistry registry = initial.registry();
+        races.forEach((event, slots) -> grouped.put(event, slots.stream()
+                .sorted(Comparator.comparingLong(registry::runnerId)).mapToInt(Integer::intValue).toArray()));
+        return Collections.unmodifiableMap(grouped);
+    }
+
+    public LocalDate raceDate() {
+        return raceDate;
+    }
+
+    public LocalDateTime timestamp() {
+        return timestamp;
+    }
+
+    public RunnerRegistry registry() {
+        return current.registry();
+    }
+
+    public RunnerStore current() {
+        return current;
+    }
+
+    public RunnerStore previous() {
+        return previous;
+    }
+
+    public RunnerStore initial() {
+        return initial;
+    }
+
+    public RunnerStore lastKnown() {
+        return lastKnown;
+    }
+
+    /** @return The runner's most recent price change, or zero if it has never moved. */
+    public double lastMovement(int slot) {
+        return slot < lastMovements.length ? lastMovements[slot] : 0;
+    }
+
+    /** For building the next state only; must not be modified. */
+    double[] lastMovements() {
+        return lastMovements;
+    }
+
+    /** @return Each event's priced baseline runners as registry slots, keyed by event string in order. The arrays must not be modified. */
+    public Map<String, int[]> racesByEvent() {
+        return racesByEvent;
+    }
+
+    public int changedRunners() {
+        return changedSlots.length;
+    }
+
+    /** @return The slots of the runners whose record changed in this poll. The array must not be modified. */
+    public int[] changedSlots() {
+        return changedSlots;
+    }
+}
@@ -0,0 +1,166 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * In-process metrics: named {@link Histogram}s, optionally split by one label (e.g. the endpoint), gauges, and
+ * counters, which are totals that only ever go up.
+ * <p>
+ * Timers record nanoseconds and are exported in seconds. Everything can be rendered in the Prometheus
+ * text exposition format, with each histogram as a summary plus a {@code _max} gauge, or as a
+ * {@link MetricsSnapshot} for JSON.
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /** One histogram's statistics, in exported units (seconds for timers). */
+    public record Summary(String name, Map<String, String> labels, long count, double sum, double mean, double max,
+                          double p50, double p90, double p99, double p999) {}
+
+    /** All metrics at one moment, for the JSON view. */
+    public record MetricsSnapshot(List<Summary> histograms, Map<String, Double> gauges, Map<String, Double> counters) {}
+
+    /** A value read at export time, exported as a gauge or, for a running total, as a counter. */
+    private record Gauge(String help, DoubleSupplier value) {}
+
+    private static final class Family {
+        private final String help;
+        private final double scale;
+        private final String label;
+        private final Map<String, Histogram> children = new ConcurrentSkipListMap<>();
+
+        Family(String help, double scale, String label) {
+            this.help = help;
+            this.scale = scale;
+            this.label = label;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> counters = new ConcurrentSkipListMap<>();
+
+    /** Gets or creates a histogram of durations, recorded in nanoseconds. The name should end in {@code _seconds}. */
+    public Histogram timer(String name, String help) {
+        return register(name, help, 1 / NANOS_PER_SECOND, null, "");
+    }
+
+    /** Gets or creates a histogram of durations for one value of a label, e.g. one endpoint. */
+    public Histogram timer(String name, String help, String label, String value) {
+        return register(name, help, 1 / NANOS_PER_SECOND, label, value);
+    }
+
+    /** Gets or creates a histogram of plain values such as counts or bytes. */
+    public Histogram histogram(String name, String help) {
+        return register(name, help, 1, null, "");
+    }
+
+    /** Gets or creates a histogram of plain values for one value of a label. */
+    public Histogram histogram(String name, String help, String label, String value) {
+        return register(name, help, 1, label, value);
+    }
+
+    /** Registers a gauge, read each time metrics are exported. */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Registers a counter, read each time metrics are exported. The value must never go down, so that rates can be
+     * taken from it.
+     * @param name The name, which must end in {@code _total}.
+     */
+    public void counter(String name, String help, DoubleSupplier value) {
+        if (!name.endsWith("_total")) {
+            throw new IllegalArgumentException("Counter " + name + " must be named with a _total suffix");
+        }
+        counters.put(name, new Gauge(help, value));
+    }
+
+    private Histogram register(String name, String help, double scale, String label, String value) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, scale, label));
+        if (family.scale != scale || (family.label == null ? label != null : !family.label.equals(label))) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered with a different unit or label");
+        }
+        return family.children.computeIfAbsent(value, v -> new Histogram());
+    }
+
+    /** Renders every metric in the Prometheus text format (version 0.0.4). */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(" summary\n");
+            family.children.forEach((value, histogram) -> {
+                String labels = family.label == null ? "" : family.label + "=\"" + escape(value) + "\"";
+                for (double quantile : QUANTILES) {
+                    String quantileLabel = "quantile=\"" + quantile + "\"";
+                    sample(out, name, labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel,
+                            histogram.valueAtQuantile(quantile) * family.scale);
+                }
+                sample(out, name + "_sum", labels, histogram.sum() * family.scale);
+                sample(out, name + "_count", labels, histogram.count());
+            });
+            out.append("# HELP ").append(name).append("_max The largest value recorded. ").append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append("_max gauge\n");
+            family.children.forEach((value, histogram) -> sample(out, name + "_max",
+                    family.label == null ? "" : family.label + "=\"" + escape(value) + "\"", histogram.max() * family.scale));
+        });
+        gauges.forEach((name, gauge) -> {
+            out.append("# HELP ").append(name).append(' ').append(gauge.help()).append('\n');
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            sample(out, name, "", gauge.value().getAsDouble());
+        });
+        counters.forEach((name, counter) -> {
+            out.append("# HELP ").append(name).append(' ').append(counter.help()).append('\n');
+            out.append("# TYPE ").append(name).append(" counter\n");
+            sample(out, name, "", counter.value().getAsDouble());
+        });
+        return out.toString();
+    }
+
+    /** Takes a snapshot of every metric for the JSON view. */
+    public MetricsSnapshot snapshot() {
+        List<Summary> summaries = new ArrayList<>();
+        families.forEach((name, family) -> family.children.forEach((value, histogram) -> {
+            long count = histogram.count();
+            double sum = histogram.sum() * family.scale;
+            summaries.add(new Summary(name, family.label == null ? Map.of() : Map.of(family.label, value), count, sum,
+                    count == 0 ? 0 : sum / count, histogram.max() * family.scale,
+                    histogram.valueAtQuantile(0.5) * family.scale, histogram.valueAtQuantile(0.9) * family.scale,
+                    histogram.valueAtQuantile(0.99) * family.scale, histogram.valueAtQuantile(0.999) * family.scale));
+        }));
+        Map<String, Double> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.value().getAsDouble()));
+        Map<String, Double> counterValues = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.value().getAsDouble()));
+        return new MetricsSnapshot(summaries, gaugeValues, counterValues);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        sample(out, name, labels, String.valueOf(value));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        sample(out, name, labels, String.valueOf(value));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
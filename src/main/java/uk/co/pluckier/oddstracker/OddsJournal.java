@@ -0,0 +1,192 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An append-only binary journal of odds snapshots.
+ * <p>
+ * The journal is written as a sequence of segment files, one per process start and calendar day,
+ * named {@code journal_yyyyMMdd_HHmmss.odj} so that sorting by name is chronological. Each segment
+ * is self-contained and has the layout:
+ * <pre>
+ * header  : int magic, short version
+ * string  : byte TAG_STRING, int id, int length, byte[length] UTF-8
+ * poll    : byte TAG_POLL, long epochSecond, byte flags, int count, count * entry
+ * entry   : long runnerId, double odds (NaN when null), int nameId, int eventId
+ * </pre>
+ * Runner names and event strings are interned into a per-segment dictionary, written inline the
+ * first time each string is used. A poll record holds only the runners whose price, name or event
+ * changed since the previous poll; a runner that dropped out of the market is written with a
+ * {@code nameId} of {@link #REMOVED}. Every {@code checkpointInterval} polls (and at the start of
+ * each segment) a checkpoint record holding the full market is written instead.
+ * <p>
+ * Finished days are rolled up by {@link JournalCompactor} into one archive per day, named
+ * {@code archive_yyyyMMdd.odj}, in the same format. Archive polls carry {@link #FLAG_SPARSE} and end
+ * with {@code int eventCount, eventCount * int eventId}. Their entries update the market as usual, but
+ * only the runners in the record, plus every runner in the listed events, are taken as history points
+ * at that time; everyone else is treated as not sampled, which lets the archive drop points where
+ * nothing moved.
+ */
+public class OddsJournal implements Closeable {
+
+    static final int MAGIC = 0x4F444A31; // "ODJ1"
+    static final short VERSION = 1;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_POLL = 2;
+    static final byte FLAG_CHECKPOINT = 1;
+    static final byte FLAG_SPARSE = 2;
+    static final int NULL_STRING = -1;
+    static final int REMOVED = -2;
+    static final int ENTRY_BYTES = Long.BYTES + Double.BYTES + Integer.BYTES + Integer.BYTES;
+
+    static final String SEGMENT_PREFIX = "journal_";
+    static final String SEGMENT_SUFFIX = ".odj";
+    static final String ARCHIVE_PREFIX = "archive_";
+    private static final DateTimeFormatter SEGMENT_FORMATTER = DateTimeFormatter.ofPattern("'journal_'yyyyMMdd_HHmmss'.odj'");
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 30;
+
+    private final File directory;
+    private final int checkpointInterval;
+
+    private SegmentWriter writer;
+    private LocalDate segmentDate;
+    private long bytesWritten;
+
+    public OddsJournal(File directory) {
+        this(directory, Integer.getInteger("oddstracker.journal.checkpointInterval", DEFAULT_CHECKPOINT_INTERVAL));
+    }
+
+    public OddsJournal(File directory, int checkpointInterval) {
+        this.directory = directory;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * Appends a poll to the journal, writing only the runners that changed since the last poll.
+     * @param timestamp The time the odds were fetched.
+     * @param odds The full market as fetched.
+     * @return The number of runner entries written.
+     */
+    public synchronized int append(LocalDateTime timestamp, Map<Long, RunnerSnapshot> odds) throws IOException {
+        if (writer == null || !timestamp.toLocalDate().equals(segmentDate)) {
+            openSegment(timestamp);
+        }
+        long before = writer.getBytesWritten();
+        try {
+            int written = writer.writePoll(timestamp.atZone(ZoneId.systemDefault()).toEpochSecond(), odds);
+            bytesWritten += writer.getBytesWritten() - before;
+            return written;
+        } catch (IOException e) {
+            // The dictionary may no longer match what is on disk, so start a fresh segment on the next poll.
+            close();
+            throw e;
+        }
+    }
+
+    private void openSegment(LocalDateTime timestamp) throws IOException {
+        close();
+        directory.mkdirs(); // Ensure the directory exists
+        // Segments are never reopened, so dictionary ids are unique within a file and readers can seek into it.
+        LocalDateTime segmentTime = timestamp;
+        File segment = new File(directory, SEGMENT_FORMATTER.format(segmentTime));
+        while (segment.exists()) {
+            segmentTime = segmentTime.plusSeconds(1);
+            segment = new File(directory, SEGMENT_FORMATTER.format(segmentTime));
+        }
+        writer = new SegmentWriter(segment, checkpointInterval);
+        bytesWritten += writer.getBytesWritten();
+        segmentDate = timestamp.toLocalDate();
+        System.out.println("Opened odds journal segment " + segment.getName());
+    }
+
+    /** @return The segment currently being written, or null if none is open. */
+    public synchronized File getActiveSegment() {
+        return writer == null ? null : writer.getFile();
+    }
+
+    /** @return The total number of bytes written to all segments by this journal. */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Finds every readable journal file in a directory, sorted chronologically (oldest to newest). A day that has
+     * been compacted into an archive is represented by the archive alone, even if live segments for that day
+     * are still present (e.g. while compaction is deleting them).
+     * @return The archives and segments, or an empty list if there are none.
+     */
+    public static List<File> listSegments(File directory) {
+        List<File> files = listAll(directory);
+        Set<String> archivedDays = new HashSet<>();
+        for (File file : files) {
+            if (isArchive(file)) {
+                archivedDays.add(dayOf(file));
+            }
+        }
+        files.removeIf(file -> !isArchive(file) && archivedDays.contains(dayOf(file)));
+        return files;
+    }
+
+    /** Finds every archive and live segment in a directory, sorted chronologically, with each day's archive first. */
+    static List<File> listAll(File directory) {
+        File[] files = directory.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX)
+                && (name.startsWith(SEGMENT_PREFIX) || name.startsWith(ARCHIVE_PREFIX)));
+        if (files == null || files.length == 0) {
+            return new ArrayList<>();
+        }
+        List<File> segments = new ArrayList<>(Arrays.asList(files));
+        // "yyyyMMdd" sorts before "yyyyMMdd_HHmmss", which puts an archive ahead of any later segments for its day.
+        segments.sort(Comparator.comparing(OddsJournal::sortKey));
+        return segments;
+    }
+
+    static boolean isArchive(File file) {
+        return file.getName().startsWith(ARCHIVE_PREFIX);
+    }
+
+    /** @return The race day of an archive or segment, as {@code yyyyMMdd}. */
+    static String dayOf(File file) {
+        return sortKey(file).substring(0, 8);
+    }
+
+    /** @return The day a file covers, as a {@link LocalDate}, or null if its name is not in the expected form. */
+    static LocalDate dateOf(File file) {
+        try {
+            return LocalDate.parse(dayOf(file), DateTimeFormatter.BASIC_ISO_DATE);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    static File archiveFile(File directory, LocalDate day) {
+        return new File(directory, ARCHIVE_PREFIX + DateTimeFormatter.BASIC_ISO_DATE.format(day) + SEGMENT_SUFFIX);
+    }
+
+    private static String sortKey(File file) {
+        String name = file.getName();
+        String prefix = isArchive(file) ? ARCHIVE_PREFIX : SEGMENT_PREFIX;
+        return name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length());
+    }
+}
@@ -0,0 +1,75 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Where the tracker gets each market snapshot from: the live exchange, a recorded journal played back,
+ * or generated prices. Everything downstream of the fetch (journal, history, web server) is the same
+ * whichever source is in use.
+ * <p>
+ * Choose one with {@code -Doddstracker.source=betfair|replay|synthetic} (default {@code betfair}).
+ */
+public interface OddsSource extends AutoCloseable {
+
+    /**
+     * One snapshot of the market.
+     * @param timestamp The time the snapshot represents (the recorded time when replaying).
+     * @param runners Every runner in the market, keyed by selection id.
+     * @param loginNanos Time spent authenticating for this fetch, zero if none.
+     * @param dataNanos Time spent fetching or decoding the market.
+     */
+    record MarketSnapshot(LocalDateTime timestamp, Map<Long, RunnerSnapshot> runners, long loginNanos, long dataNanos) {}
+
+    /**
+     * Gets the next snapshot.
+     * @return The snapshot, or null if the source has nothing more to give (e.g. a replay has finished).
+     * @throws Exception If the fetch fails.
+     */
+    MarketSnapshot fetch() throws Exception;
+
+    /**
+     * Lets a source set its own cadence instead of the race-time based one, e.g. to replay at recorded speed.
+     * @return The time from the start of the last fetch to the next one, or null to use the normal schedule.
+     */
+    default Duration pacing() {
+        return null;
+    }
+
+    @Override
+    default void close() {
+    }
+
+    /** Creates the source selected by {@code oddstracker.source}. */
+    static OddsSource fromSystemProperties(File snapshotDir) throws IOException {
+        String source = System.getProperty("oddstracker.source", "betfair");
+        switch (source) {
+            case "betfair":
+                boolean fake = "fake".equals(System.getProperty("oddstracker.fetcher"));
+                return new BetfairOddsSource(() -> fake ? new FakeMarketDataClient() : new BetfairClient());
+            case "replay":
+                String replayDir = System.getProperty("oddstracker.replay.dir");
+                if (replayDir == null) {
+                    throw new IllegalArgumentException("oddstracker.replay.dir must name the journal directory to replay");
+                }
+                File dir = new File(replayDir);
+                if (dir.getCanonicalFile().equals(snapshotDir.getCanonicalFile())) {
+                    throw new IllegalArgumentException("The replay directory must differ from the snapshot directory, "
+                            + "or the replay would be journaled on top of itself; set oddstracker.snapshotDir");
+                }
+                return new ReplayOddsSource(dir, Double.parseDouble(System.getProperty("oddstracker.replay.speed", "1")));
+            case "synthetic":
+                return new SyntheticOddsSource(
+                        new SyntheticMarket(Integer.getInteger("oddstracker.synthetic.events", 30),
+                                Integer.getInteger("oddstracker.synthetic.runnersPerEvent", 10),
+                                Double.parseDouble(System.getProperty("oddstracker.synthetic.moveProbability", "0.3")),
+                                Long.getLong("oddstracker.synthetic.seed", 42)),
+                        Duration.ofMillis(Long.getLong("oddstracker.synthetic.intervalMillis", 0)));
+            default:
+                throw new IllegalArgumentException("Unknown odds source '" + source + "'; expected betfair, replay or synthetic");
+        }
+    }
+}
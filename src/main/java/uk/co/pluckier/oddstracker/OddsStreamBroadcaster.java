@@ -0,0 +1,129 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Fans Server-Sent Events out to connected dashboard clients.
+ * <p>
+ * Each client has its own bounded queue. Publishing never blocks: if a slow client's queue is full,
+ * its pending events are dropped and it is marked for a resync, so the next thing it is sent is a full
+ * snapshot. The poller therefore never waits on a viewer, and a viewer that falls behind catches up
+ * with one snapshot instead of a backlog of diffs.
+ * <p>
+ * Each connected client holds a request thread, so the number of clients is capped at a small share of
+ * the server's thread pool, leaving the rest for ordinary requests. Broadcasters on the same server share
+ * one set of connection permits, so the cap covers every stream together.
+ */
+public class OddsStreamBroadcaster {
+
+    private static final long HEARTBEAT_SECONDS = 15;
+    /** The percentage of the server's request threads that open streams may hold by default. */
+    private static final int DEFAULT_THREAD_SHARE_PERCENT = 10;
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final int bufferSize;
+    private final Semaphore connections;
+
+    /** @param connections The permits shared by every stream on the server, one per connected client. */
+    public OddsStreamBroadcaster(Semaphore connections) {
+        this(Integer.getInteger("oddstracker.stream.bufferSize", 16), connections);
+    }
+
+    public OddsStreamBroadcaster(int bufferSize, Semaphore connections) {
+        this.bufferSize = Math.max(1, bufferSize);
+        this.connections = connections;
+    }
+
+    /**
+     * Queues an event for every connected client without blocking.
+     * @param event The SSE event name.
+     * @param data The event data, which must be a single line (e.g. compact JSON).
+     */
+    public void publish(String event, String data) {
+        String frame = frame(event, data);
+        for (Client client : clients) {
+            if (!client.queue.offer(frame)) {
+                client.queue.clear();
+                client.resync.set(true);
+            }
+        }
+    }
+
+    /**
+     * Streams events to one client until it disconnects. This blocks the calling (request) thread.
+     * @param out The response stream, with SSE headers already set.
+     * @param snapshot Supplies the current full snapshot, sent on connect and after any overflow.
+     * @return False if the client was refused because the connection limit has been reached.
+     */
+    public boolean serve(OutputStream out, Supplier<String> snapshot) {
+        if (!connections.tryAcquire()) {
+            return false;
+        }
+        Client client = new Client(bufferSize);
+        clients.add(client);
+        try {
+            write(out, "retry: 5000\n\n");
+            while (!Thread.currentThread().isInterrupted()) {
+                if (client.resync.getAndSet(false)) {
+                    write(out, frame("snapshot", snapshot.get()));
+                }
+                String frame = client.queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                // A comment line keeps proxies from timing out the connection and detects dead clients.
+                write(out, frame != null ? frame : ": keep-alive\n\n");
+            }
+        } catch (IOException e) {
+            // The client has gone away.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(client);
+            connections.release();
+        }
+        return true;
+    }
+
+    /**
+     * Works out how many stream clients a server may hold open across all its streams: oddstracker.stream.maxClients
+     * if set, but never more than half the request threads, or by default a tenth of them.
+     */
+    static int maxClients(int serverThreads) {
+        Integer configured = Integer.getInteger("oddstracker.stream.maxClients");
+        if (configured != null) {
+            return Math.min(configured, Math.max(1, serverThreads / 2));
+        }
+        return Math.max(1, serverThreads * DEFAULT_THREAD_SHARE_PERCENT / 100);
+    }
+
+    public int clientCount() {
+        return clients.size();
+    }
+
+    private static String frame(String event, String data) {
+        return "event: " + event + "\ndata: " + data + "\n\n";
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static final class Client {
+        private final BlockingQueue<String> queue;
+        /** Set when the client needs a full snapshot: on connect, and whenever its queue overflows. */
+        private final AtomicBoolean resync = new AtomicBoolean(true);
+
+        Client(int bufferSize) {
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+}
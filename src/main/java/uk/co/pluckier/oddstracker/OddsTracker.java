@@ -1,303 +1,551 @@
 package uk.co.pluckier.oddstracker;
 
 import java.io.*;
-import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
-import uk.co.kennah.tkapi.client.Session;
-import uk.co.kennah.tkapi.io.Writer;
-import uk.co.kennah.tkapi.model.MyRunner;
-import uk.co.pluckier.oddstracker.WebServer.HistoryPoint;
-import uk.co.pluckier.oddstracker.WebServer.RaceHistoryPayload;
-import uk.co.pluckier.oddstracker.WebServer.RunnerHistory;
-import uk.co.kennah.tkapi.process.DataFetcher;
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.RaceAnalytics.BookSeries;
 
 public class OddsTracker {
 
-    private static final String SNAPSHOT_DIR = "odds_snapshots";
-    private static final DateTimeFormatter FILENAME_FORMATTER = DateTimeFormatter.ofPattern("'odds_'yyyyMMdd_HHmmss'.ser'").withZone(ZoneId.systemDefault());
-    private Map<Long, MyRunner> previousOdds;
-    private Map<Long, MyRunner> currentOdds;
-    private final Map<Long, MyRunner> initialOdds;
-    private final Map<Long, MyRunner> lastKnownOdds;
-    private final Map<Long, Double> lastRecordedMovementMap;
-
-    public OddsTracker() {
-        // Get the list of snapshot files once to avoid redundant I/O operations.
-        List<File> snapshotFiles = getSnapshotFiles();
-
-        this.previousOdds = loadPreviousOdds(snapshotFiles);
-        this.currentOdds = new HashMap<>(this.previousOdds); // Initialize with last known odds
-        this.initialOdds = loadInitialOdds(snapshotFiles);
-        this.lastKnownOdds = loadLastKnownOdds(snapshotFiles);
-        this.lastRecordedMovementMap = buildLastRecordedMovementMap(snapshotFiles);
+    static final String SNAPSHOT_DIR = System.getProperty("oddstracker.snapshotDir", "odds_snapshots");
+    private final File snapshotDir;
+    private final OddsJournal journal;
+    private final SnapshotStore snapshotStore;
+    private final JournalCompactor compactor;
+    /**
+     * Each race day's market, in date order. Replaced, never modified, by the processor thread after each poll;
+     * read by the web server. Days before the latest poll's date are sealed and dropped.
+     */
+    private volatile NavigableMap<LocalDate, MarketState> marketStates;
+    private final HistoryIndex historyIndex;
+    /** Whole-event histories that needed reading from disk, dropped as polls add to them. */
+    private final HistoryCache historyCache = new HistoryCache();
+    private final AlertEngine alertEngine;
+    /** Each race's book and overround series, kept up to date alongside the history. */
+    private final RaceAnalytics raceAnalytics;
+    /** The start of the earliest day still held in memory, before which history is only on disk. */
+    private volatile long historyFrom;
+    /**
+     * Events with history before {@link #historyFrom}, which must be read from disk. Any other event's whole history
+     * is in {@link #historyIndex}. Only grows, as days are sealed; events since removed by retention just read nothing.
+     */
+    private final Set<String> diskEvents = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> updateListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> knownEvents = ConcurrentHashMap.newKeySet();
+    private final OddsSource source;
+    private final Metrics metrics = new Metrics();
+    private final Histogram fetchTime = metrics.timer("oddstracker_fetch_seconds", "Time to fetch the market from the odds source.");
+    private final Histogram loginTime = metrics.timer("oddstracker_login_seconds", "Time to log in, for fetches that needed a new session.");
+    private final Histogram pollTime = metrics.timer("oddstracker_poll_seconds", "Time from the start of a fetch to the end of processing the poll.");
+    private final Histogram runnersPerPoll = metrics.histogram("oddstracker_poll_runners", "Runners in each poll.");
+    private final Histogram changedPerPoll = metrics.histogram("oddstracker_poll_changed_runners", "Runners that changed since the previous poll.");
+    private final Histogram journalTime = metrics.timer("oddstracker_journal_write_seconds", "Time to append a poll to the journal.");
+    private final Histogram journalBytes = metrics.histogram("oddstracker_journal_write_bytes", "Bytes appended to the journal per poll.");
+    private final Histogram analyticsTime = metrics.timer("oddstracker_analytics_update_seconds", "Time to update the race books for a poll.");
+    private final Histogram alertTime = metrics.timer("oddstracker_alert_evaluation_seconds", "Time to check a poll against the alert rules.");
+    private final ExecutorService processor = Executors.newSingleThreadExecutor(r -> new Thread(r, "odds-processor"));
+    private CompletableFuture<Void> lastProcessing = CompletableFuture.completedFuture(null);
+
+    public OddsTracker() throws IOException {
+        this(OddsSource.fromSystemProperties(new File(SNAPSHOT_DIR)));
+    }
+
+    public OddsTracker(OddsSource source) {
+        this(new File(SNAPSHOT_DIR), source);
+    }
+
+    /** Creates a tracker over a given journal directory, e.g. generated fixture data. */
+    OddsTracker(File snapshotDir, OddsSource source) {
+        this(snapshotDir, source, LocalDate.now());
+    }
+
+    /** Creates a tracker that rebuilds its state from a given day onwards, e.g. the day fixture data was written for. */
+    OddsTracker(File snapshotDir, OddsSource source, LocalDate today) {
+        this.snapshotDir = snapshotDir;
+        this.journal = new OddsJournal(snapshotDir);
+        this.snapshotStore = new SnapshotStore(snapshotDir);
+        this.compactor = new JournalCompactor(snapshotDir, journal::getActiveSegment, snapshotStore::refresh);
+        this.source = source;
+        // Decode today's journal segments once, in parallel, and build all startup state from that single pass.
+        long startupStarted = System.nanoTime();
+        this.historyFrom = today.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        StartupLoader.StartupState state = StartupLoader.load(getSnapshotFiles(today));
+        metrics.timer("oddstracker_startup_rebuild_seconds", "Time to rebuild state from the journal at startup.")
+                .record(System.nanoTime() - startupStarted);
+
+        // Split the rebuilt market by race day; anything from an earlier day was already over.
+        TreeMap<LocalDate, MarketState> states = new TreeMap<>();
+        state.lastKnownOdds().values().stream()
+                .map(runner -> Objects.requireNonNullElse(runner.raceDate(), today))
+                .filter(raceDate -> !raceDate.isBefore(today))
+                .distinct()
+                .forEach(raceDate -> states.put(raceDate, MarketState.fromStartup(state, raceDate, today)));
+        this.marketStates = Collections.unmodifiableNavigableMap(states);
+        this.historyIndex = state.historyIndex();
+        this.diskEvents.addAll(snapshotStore.listEventsBefore(today));
+        this.alertEngine = AlertEngine.fromSystemProperties(historyIndex);
+        this.raceAnalytics = RaceAnalytics.fromHistory(historyIndex,
+                states.values().stream().flatMap(day -> day.racesByEvent().keySet().stream()).toList(),
+                state.withdrawals());
+        states.values().forEach(day -> day.initial().forEach(slot -> trackEvent(day.initial().event(slot))));
+
+        metrics.gauge("oddstracker_history_cache_bytes", "Approximate size of the cached event histories.", historyCache::bytes);
+        metrics.gauge("oddstracker_history_cache_events", "Event histories in the cache.", historyCache::size);
+        metrics.counter("oddstracker_history_cache_hits_total", "History lookups served from the cache.", historyCache::hits);
+        metrics.counter("oddstracker_history_cache_misses_total", "History lookups that missed the cache.", historyCache::misses);
+        metrics.gauge("oddstracker_analytics_races", "Races with a book kept in memory.", raceAnalytics::size);
+        metrics.counter("oddstracker_alerts_raised_total", "Alerts raised.", alertEngine::raisedCount);
+        metrics.counter("oddstracker_alerts_dropped_total", "Alert deliveries dropped because a sink fell behind.", alertEngine::droppedCount);
     }
 
     public void startPolling() {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        // Schedule the pollOdds method to run every 5 minutes
-        scheduler.scheduleAtFixedRate(this::pollOdds, 0, 2, TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(source::close));
+        // Poll more often as each race's off time approaches, and idle once the last race has gone,
+        // unless the source sets its own pace.
+        PollScheduler scheduler = new PollScheduler(this::pollOdds, () -> knownEvents, source::pacing);
+        metrics.gauge("oddstracker_poll_interval_seconds", "The interval until the next poll, as last chosen by the scheduler.",
+                () -> scheduler.getCurrentInterval().toNanos() / 1e9);
+        scheduler.start();
+        compactor.start();
     }
 
+    /**
+     * Runs one poll. The fetch happens on the calling thread; persisting, diffing and notifying happen on the
+     * processor thread, so the next fetch can overlap them. Polls are still processed one at a time and in
+     * order, and a fetch waits for the previous poll's processing before handing over, so at most one is pending.
+     */
     private void pollOdds() {
-        System.out.println("Polling Betfair for odds changes...");
-        try {
-            // The "current" from the last poll now becomes the "previous" for this poll.
-            this.previousOdds = new HashMap<>(this.currentOdds);
+        System.out.println("Polling for odds changes...");
+        long pollStarted = System.nanoTime();
+        OddsSource.MarketSnapshot snapshot = getOdds();
+        if (snapshot == null) {
+            return; // The fetch failed; keep the current state rather than recording an empty market.
+        }
+        lastProcessing.join();
+        lastProcessing = CompletableFuture.runAsync(() -> processOdds(snapshot.runners(), snapshot.timestamp(), pollStarted), processor);
+    }
 
-            // Your single call to get the current odds
-            Map<Long, MyRunner> latestOdds = getOdds();
+    /** Runs one poll on the calling thread and waits until it has been processed, e.g. to drive the tracker from a test. */
+    void pollAndWait() {
+        pollOdds();
+        lastProcessing.join();
+    }
 
-            if (previousOdds.isEmpty()) {
+    private void processOdds(Map<Long, RunnerSnapshot> latestOdds, LocalDateTime timestamp, long pollStarted) {
+        try {
+            NavigableMap<LocalDate, MarketState> previousStates = this.marketStates;
+            if (previousStates.isEmpty()) {
                 System.out.println("Initial run. Storing current odds.");
             } else {
                 System.out.println("--- Odds Updates ---");
-                for (Map.Entry<Long, MyRunner> entry : latestOdds.entrySet()) {
-                    Long runnerId = entry.getKey();
-                    MyRunner currentRunner = entry.getValue();
-
-                    if (previousOdds.containsKey(runnerId)) {
-                        MyRunner previousRunner = previousOdds.get(runnerId);
-                        Double previousOddsValue = previousRunner.getOdds() != null ? previousRunner.getOdds() : 0.0;
-                        Double currentOddsValue = currentRunner.getOdds() != null ? currentRunner.getOdds() : 0.0;
-
-                        if (!previousOddsValue.equals(currentOddsValue)) {
-                            System.out.printf("UPDATE: %-25s | Previous: %7.2f | Current: %7.2f | Event: %s%n",
-                                    currentRunner.getName(), previousOddsValue, currentOddsValue, currentRunner.getEvent());
-                        }
-                    }
-                }
             }
-
-            // Save the newly fetched odds to a file and update the main currentOdds map.
-            saveOdds(latestOdds);
-            this.currentOdds = latestOdds; // Update current odds for API
+            // Days before the poll's own date are over: they are sealed, and any of their runners still listed are ignored.
+            LocalDate pollDate = timestamp.toLocalDate();
+            NavigableMap<LocalDate, Map<Long, RunnerSnapshot>> byRaceDate = splitByRaceDate(latestOdds, pollDate);
+            TreeMap<LocalDate, MarketState> nextStates = new TreeMap<>(previousStates.tailMap(pollDate, true));
+            byRaceDate.headMap(pollDate).forEach((raceDate, runners) ->
+                    System.out.println("Ignoring " + runners.size() + " runners from " + raceDate + ", which is over."));
+            byRaceDate.headMap(pollDate).clear();
+            int changed = 0;
+            int polled = 0;
+            for (Map.Entry<LocalDate, Map<Long, RunnerSnapshot>> day : byRaceDate.entrySet()) {
+                // Only the days in this poll are touched; a day whose fetch failed keeps its last state.
+                // The "current" from the last poll becomes the "previous" for this one.
+                MarketState nextState = applyDelta(nextStates.getOrDefault(day.getKey(), MarketState.empty(day.getKey())), day.getValue(), timestamp);
+                nextStates.put(day.getKey(), nextState);
+                changed += nextState.changedRunners();
+                polled += day.getValue().size();
+            }
+            System.out.println(changed + " of " + polled + " runners changed since the last poll.");
+            runnersPerPoll.record(polled);
+            changedPerPoll.record(changed);
+
+            // Save the newly fetched odds to the journal, index them for history, and publish the new state for the API.
+            saveOdds(trackedRunners(nextStates, byRaceDate), timestamp);
+            long epochSecond = timestamp.atZone(ZoneId.systemDefault()).toEpochSecond();
+            byRaceDate.forEach((raceDate, runners) -> {
+                historyIndex.append(epochSecond, runners);
+                historyCache.invalidate(nextStates.get(raceDate).racesByEvent().keySet());
+            });
+            long analyticsStarted = System.nanoTime();
+            byRaceDate.keySet().forEach(raceDate -> raceAnalytics.update(nextStates.get(raceDate), epochSecond));
+            analyticsTime.record(System.nanoTime() - analyticsStarted);
+            this.marketStates = Collections.unmodifiableNavigableMap(nextStates);
+            long alertsStarted = System.nanoTime();
+            byRaceDate.keySet().forEach(raceDate -> alertEngine.evaluate(nextStates.get(raceDate), epochSecond));
+            alertTime.record(System.nanoTime() - alertsStarted);
+            if (!previousStates.headMap(pollDate, false).isEmpty()) {
+                seal(previousStates.headMap(pollDate, false).keySet(), pollDate);
+            }
+            notifyUpdateListeners();
+            pollTime.record(System.nanoTime() - pollStarted);
         } catch (Exception e) {
             System.err.println("Error during odds polling: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private Map<Long, MyRunner> getOdds() {
-        System.out.println("Fetching current odds from Betfair...");
-        Map<Long, MyRunner> horses = new HashMap<>();
-        try {
-            DataFetcher fetcher = new DataFetcher();
-            Session session = fetcher.getSession();
-            session.login();// Use the authenticator to log in
-            System.out.println("Logged in with session status: " + session.getStatus());
-            if ("SUCCESS".equals(session.getStatus())) {
-                horses = fetcher.getData(LocalDate.now().plusDays(0).format(DateTimeFormatter.ISO_LOCAL_DATE));
-                System.out.println("Fetched " + horses.size() + " runners.");
-                session.logout();
-            } else {
-                System.err.println("Login failed with status: " + session.getStatus() + ". Aborting operation.");
+    /** Groups a poll's runners by race day, putting runners whose event names no day under the poll's own date. */
+    private static NavigableMap<LocalDate, Map<Long, RunnerSnapshot>> splitByRaceDate(Map<Long, RunnerSnapshot> runners, LocalDate pollDate) {
+        NavigableMap<LocalDate, Map<Long, RunnerSnapshot>> byRaceDate = new TreeMap<>();
+        runners.forEach((runnerId, runner) -> {
+            if (runner != null) {
+                LocalDate raceDate = Objects.requireNonNullElse(runner.raceDate(), pollDate);
+                byRaceDate.computeIfAbsent(raceDate, d -> new HashMap<>()).put(runnerId, runner);
             }
-        } catch (Exception e) {
-            System.err.println("An unexpected error occurred in the main process:");
-            e.printStackTrace();
-        } 
-        System.out.println("Fetched " + horses.size() + " runners.");
-        return horses;
-    }
-
-    public Map<Long, MyRunner> getCurrentOdds() {
-        return this.currentOdds;
-    }
-
-    public Map<Long, MyRunner> getPreviousOdds() {
-        return this.previousOdds;
+        });
+        return byRaceDate;
     }
 
-    public Map<Long, MyRunner> getInitialOdds() {
-        return this.initialOdds;
+    /**
+     * Gets every runner on the days still tracked, as journaled for this poll: the fetched runners for the days in the
+     * poll, and the last fetched runners for any other day, so a failed fetch for one day does not record its runners
+     * as removed. A selection listed on two days is kept under the later one.
+     */
+    private static Map<Long, RunnerSnapshot> trackedRunners(NavigableMap<LocalDate, MarketState> states,
+                                                            Map<LocalDate, Map<Long, RunnerSnapshot>> polled) {
+        if (states.size() == 1 && polled.size() == 1) {
+            return polled.values().iterator().next();
+        }
+        Map<Long, RunnerSnapshot> tracked = new HashMap<>();
+        states.forEach((raceDate, state) -> {
+            Map<Long, RunnerSnapshot> runners = polled.get(raceDate);
+            if (runners != null) {
+                tracked.putAll(runners);
+            } else {
+                RunnerStore current = state.current();
+                current.forEach(slot -> {
+                    long runnerId = current.registry().runnerId(slot);
+                    tracked.put(runnerId, current.get(runnerId));
+                });
+            }
+        });
+        return tracked;
     }
 
-    public Map<Long, MyRunner> getLastKnownOdds() {
-        return this.lastKnownOdds;
+    /**
+     * Drops finished race days from memory. Their odds are already in the journal, which serves their history from here on.
+     * @param raceDates The days being sealed.
+     * @param pollDate The first day still tracked.
+     */
+    private void seal(Set<LocalDate> raceDates, LocalDate pollDate) {
+        knownEvents.removeIf(event -> {
+            LocalDate raceDate = RunnerSnapshot.raceDate(event);
+            return raceDate == null || raceDate.isBefore(pollDate);
+        });
+        long from = pollDate.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        // Mark the events about to lose points as on disk first, so a concurrent read never takes a trimmed history as whole.
+        diskEvents.addAll(historyIndex.eventsBefore(from));
+        historyFrom = from;
+        historyIndex.removeBefore(from);
+        raceAnalytics.removeBefore(from);
+        alertEngine.clearCooldowns();
+        System.out.println("Sealed race days " + raceDates + "; now tracking " + this.marketStates.keySet() + ".");
     }
 
-    public Map<Long, Double> getLastRecordedMovementMap() {
-        return this.lastRecordedMovementMap;
+    /**
+     * Registers a callback to run on the processor thread after each poll has been applied.
+     * Listeners should be quick; anything slow belongs on another thread.
+     */
+    public void addUpdateListener(Runnable listener) {
+        updateListeners.add(listener);
     }
 
-    public RaceHistoryPayload getRaceHistory(String eventIdentifier) {
-        List<File> snapshotFiles = getSnapshotFiles();
-        // A map to hold the history for each runner in the race. Key: runnerId, Value: RunnerHistory object.
-        Map<Long, RunnerHistory> raceHistories = new HashMap<>();
-    
-        DateTimeFormatter parser = DateTimeFormatter.ofPattern("'odds_'yyyyMMdd_HHmmss'.ser'");
-    
-        for (File file : snapshotFiles) {
+    private void notifyUpdateListeners() {
+        for (Runnable listener : updateListeners) {
             try {
-                String filename = file.getName();
-                LocalDateTime timestamp = LocalDateTime.parse(filename, parser);
-    
-                Map<Long, MyRunner> snapshot = loadOddsFromFile(file);
-    
-                for (Map.Entry<Long, MyRunner> entry : snapshot.entrySet()) {
-                    MyRunner runner = entry.getValue();
-                    // Check if this runner belongs to the requested event
-                    if (runner != null && eventIdentifier.equals(runner.getEvent())) {
-                        long runnerId = entry.getKey();
-                        
-                        // If it's a valid odds point, add it to the runner's history
-                        if (runner.getOdds() != null && runner.getOdds() > 0) {
-                            // Get or create the history object for this runner
-                            RunnerHistory runnerHistory = raceHistories.computeIfAbsent(
-                                runnerId, 
-                                id -> new RunnerHistory(id, runner.getName(), new ArrayList<>())
-                            );
-                            
-                            // Add the new data point
-                            runnerHistory.history().add(new HistoryPoint(timestamp, runner.getOdds()));
-                            
-                            // Update name in case it changes (unlikely but safe)
-                            if (!runnerHistory.runnerName().equals(runner.getName())) {
-                                raceHistories.put(runnerId, new RunnerHistory(runnerId, runner.getName(), runnerHistory.history()));
-                            }
-                        }
-                    }
-                }
+                listener.run();
             } catch (Exception e) {
-                System.err.println("Could not parse history from file: " + file.getName());
+                System.err.println("Error in odds update listener: " + e.getMessage());
+                e.printStackTrace();
             }
         }
-    
-        return new RaceHistoryPayload(eventIdentifier, new ArrayList<>(raceHistories.values()));
     }
 
     /**
-     * A helper method to find, filter, and sort all snapshot files chronologically.
-     * This encapsulates the repetitive file-handling logic.
-     * @return A sorted List of snapshot files, or an empty list if none are found.
+     * Applies a poll to the live state as a delta, producing the next state. Only runners whose record changed
+     * since the previous poll touch the last-known, last-movement and baseline stores, and each of those is copied
+     * only if something in it actually changes; the rest are shared with the previous state.
      */
-    private List<File> getSnapshotFiles() {
-        File dir = new File(SNAPSHOT_DIR);
-        if (!dir.exists() || !dir.isDirectory()) {
-            System.out.println("Snapshot directory not found.");
-            return Collections.emptyList();
-        }
+    private MarketState applyDelta(MarketState state, Map<Long, RunnerSnapshot> latest, LocalDateTime timestamp) {
+        RunnerRegistry registry = state.registry();
+        RunnerStore previous = state.current();
+        RunnerStore.Builder current = new RunnerStore.Builder(registry, registry.size() + latest.size() / 8);
+        RunnerStore.Builder lastKnownOdds = null;
+        double[] lastRecordedMovements = null;
+        RunnerStore.Builder initialOdds = null;
+        int[] changedSlots = new int[16];
+        int changed = 0;
+        for (Map.Entry<Long, RunnerSnapshot> entry : latest.entrySet()) {
+            RunnerSnapshot currentRunner = entry.getValue();
+            if (currentRunner == null) {
+                continue;
+            }
+            int slot = registry.register(entry.getKey());
+            double price = currentRunner.odds() != null ? currentRunner.odds() : Double.NaN;
+            int nameId = registry.intern(currentRunner.name());
+            int eventId = registry.intern(currentRunner.event());
+            current.put(slot, price, nameId, eventId);
+            if (previous.sameRecord(slot, price, nameId, eventId)) {
+                continue;
+            }
+            if (changed == changedSlots.length) {
+                changedSlots = Arrays.copyOf(changedSlots, changed * 2);
+            }
+            changedSlots[changed++] = slot;
+
+            if (previous.contains(slot)) {
+                double previousOddsValue = Double.isNaN(previous.odds(slot)) ? 0.0 : previous.odds(slot);
+                double currentOddsValue = Double.isNaN(price) ? 0.0 : price;
+                if (previousOddsValue != currentOddsValue) {
+                    System.out.printf("UPDATE: %-25s | Previous: %7.2f | Current: %7.2f | Event: %s%n",
+                            currentRunner.name(), previousOddsValue, currentOddsValue, currentRunner.event());
+                }
+            }
 
-        File[] files = dir.listFiles((d, name) -> name.startsWith("odds_") && name.endsWith(".ser"));
-        if (files == null || files.length == 0) {
-            System.out.println("No snapshot files found.");
-            return Collections.emptyList();
+            // Movement is measured against the runner's last known record, which may predate the previous poll.
+            double lastKnownPrice = state.lastKnown().odds(slot);
+            if (lastKnownOdds == null) {
+                lastKnownOdds = state.lastKnown().toBuilder();
+            }
+            lastKnownOdds.put(slot, price, nameId, eventId);
+            if (!Double.isNaN(lastKnownPrice) && !Double.isNaN(price) && price != lastKnownPrice) {
+                if (lastRecordedMovements == null) {
+                    lastRecordedMovements = Arrays.copyOf(state.lastMovements(), Math.max(state.lastMovements().length, registry.size()));
+                } else if (slot >= lastRecordedMovements.length) {
+                    lastRecordedMovements = Arrays.copyOf(lastRecordedMovements, registry.size());
+                }
+                lastRecordedMovements[slot] = price - lastKnownPrice;
+            }
+
+            // Runners and events that appear after the first poll join the baseline at their first price.
+            if (price > 0 && !state.initial().contains(slot)) {
+                if (initialOdds == null) {
+                    initialOdds = state.initial().toBuilder();
+                }
+                if (!initialOdds.contains(slot)) {
+                    initialOdds.put(slot, price, nameId, eventId);
+                }
+            }
+            if (!previous.contains(slot) || previous.eventId(slot) != eventId) {
+                trackEvent(currentRunner.event());
+            }
         }
 
-        List<File> fileList = new ArrayList<>(Arrays.asList(files));
-        // Sort files chronologically (oldest to newest) based on filename
-        fileList.sort(java.util.Comparator.comparing(File::getName));
-        return fileList;
+        RunnerStore initial = initialOdds == null ? state.initial() : initialOdds.build();
+        return new MarketState(state.raceDate(), timestamp, current.build(), previous, initial,
+                lastKnownOdds == null ? state.lastKnown() : lastKnownOdds.build(),
+                lastRecordedMovements == null ? state.lastMovements() : lastRecordedMovements,
+                initialOdds == null ? state.racesByEvent() : MarketState.groupByEvent(initial), Arrays.copyOf(changedSlots, changed));
     }
 
-    private Map<Long, MyRunner> loadPreviousOdds(List<File> snapshotFiles) {
-        if (snapshotFiles.isEmpty()) {
-            System.out.println("No previous odds files found. This is the first run.");
-            return new HashMap<>();
+    private void trackEvent(String event) {
+        if (event != null && !event.isEmpty()) {
+            knownEvents.add(event);
         }
-
-        // The list is sorted chronologically, so the last file is the most recent.
-        File fileToLoad = snapshotFiles.get(snapshotFiles.size() - 1);
-        System.out.println("Loading most recent odds from: " + fileToLoad.getName());
-        return loadOddsFromFile(fileToLoad);
     }
 
-    private Map<Long, MyRunner> loadInitialOdds(List<File> snapshotFiles) {
-        if (snapshotFiles.isEmpty()) {
-            System.out.println("No initial odds files found. No historical baseline.");
-            return new HashMap<>();
+    /**
+     * Fetches the next market snapshot from the source.
+     * @return The snapshot, or null if the fetch failed or the source has finished.
+     */
+    private OddsSource.MarketSnapshot getOdds() {
+        System.out.println("Fetching current odds...");
+        try {
+            OddsSource.MarketSnapshot result = source.fetch();
+            if (result == null) {
+                return null;
+            }
+            System.out.printf("Fetched %d runners (login %d ms, data %d ms).%n", result.runners().size(),
+                    result.loginNanos() / 1_000_000, result.dataNanos() / 1_000_000);
+            fetchTime.record(result.dataNanos());
+            if (result.loginNanos() > 0) {
+                loginTime.record(result.loginNanos());
+            }
+            return result;
+        } catch (Exception e) {
+            System.err.println("An unexpected error occurred while fetching odds:");
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        // The list is sorted chronologically, so the first file is the earliest.
-        File fileToLoad = snapshotFiles.get(0);
-        System.out.println("Loading initial baseline odds from: " + fileToLoad.getName());
-        return loadOddsFromFile(fileToLoad);
+    public Metrics getMetrics() {
+        return this.metrics;
     }
 
-    private Map<Long, MyRunner> loadLastKnownOdds(List<File> snapshotFiles) {
-        System.out.println("Building last known odds from all snapshots...");
-        Map<Long, MyRunner> lastOdds = new HashMap<>();
+    public AlertEngine getAlertEngine() {
+        return this.alertEngine;
+    }
 
-        if (snapshotFiles.isEmpty()) {
-            return lastOdds;
-        }
+    /**
+     * Gets every race day still tracked, in date order, as of the latest poll. The map is never modified.
+     */
+    public NavigableMap<LocalDate, MarketState> getMarketStates() {
+        return this.marketStates;
+    }
 
-        for (File file : snapshotFiles) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                Map<Long, MyRunner> snapshotOdds = (Map<Long, MyRunner>) ois.readObject();
-                lastOdds.putAll(snapshotOdds); // Overwrite with newer odds
-            } catch (IOException | ClassNotFoundException e) {
-                System.err.println("Error loading snapshot " + file.getName() + ": " + e.getMessage());
-            }
-        }
-        System.out.println("Finished building last known odds for " + lastOdds.size() + " runners.");
-        return lastOdds;
+    /**
+     * Gets one race day's market as of the latest poll. Take it once per request and read everything from that one
+     * object, so that all of its stores come from the same poll.
+     * @return The day's state, or null if the day is not being tracked.
+     */
+    public MarketState getMarketState(LocalDate raceDate) {
+        return this.marketStates.get(raceDate);
     }
 
-    private Map<Long, Double> buildLastRecordedMovementMap(List<File> snapshotFiles) {
-        System.out.println("Building last recorded movement map from all snapshots...");
-        Map<Long, Double> lastMovements = new HashMap<>();
-        Map<Long, MyRunner> previousSnapshotOdds = new HashMap<>();
-        
-        if (snapshotFiles.isEmpty()) {
-            return lastMovements;
-        }
+    /**
+     * Gets the whole history for one event. Memory holds everything since the start of the day the tracker started;
+     * anything earlier is read from the journal and archives on disk.
+     */
+    public RaceHistory getRaceHistory(String eventIdentifier) {
+        return getRaceHistories(List.of(eventIdentifier)).get(0);
+    }
 
-        for (File file : snapshotFiles) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                Map<Long, MyRunner> currentSnapshotOdds = (Map<Long, MyRunner>) ois.readObject();
-                for (Map.Entry<Long, MyRunner> entry : currentSnapshotOdds.entrySet()) {
-                    MyRunner previousRunner = previousSnapshotOdds.get(entry.getKey());
-                    MyRunner currentRunner = entry.getValue();
-                    if (previousRunner != null && previousRunner.getOdds() != null && currentRunner.getOdds() != null && !currentRunner.getOdds().equals(previousRunner.getOdds())) {
-                        lastMovements.put(entry.getKey(), currentRunner.getOdds() - previousRunner.getOdds());
-                    }
+    /**
+     * Gets the whole history for several events, e.g. every race at a meeting. Events held only in memory are a
+     * lookup that touches neither the cache nor the disk; the rest come from the history cache, or failing that from
+     * a single pass over the files on disk, after which they are cached.
+     * @return One history per distinct event, in the order given.
+     */
+    public List<RaceHistory> getRaceHistories(Collection<String> eventIdentifiers) {
+        long generation = historyCache.generation();
+        long from = historyFrom;
+        Map<String, RaceHistory> histories = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String eventIdentifier : eventIdentifiers) {
+            if (histories.containsKey(eventIdentifier)) {
+                continue;
+            }
+            // An event with nothing on disk is whole in the index, so it neither needs nor counts against the cache.
+            if (!diskEvents.contains(eventIdentifier)) {
+                histories.put(eventIdentifier, historyIndex.getRaceHistory(eventIdentifier));
+                continue;
+            }
+            RaceHistory cached = historyCache.get(eventIdentifier);
+            histories.put(eventIdentifier, cached);
+            if (cached == null) {
+                misses.add(eventIdentifier);
+            }
+        }
+        if (!misses.isEmpty()) {
+            HistoryIndex earlier = snapshotStore.readHistory(misses, Long.MIN_VALUE, from - 1);
+            for (String eventIdentifier : misses) {
+                if (!earlier.contains(eventIdentifier)) {
+                    histories.put(eventIdentifier, historyIndex.getRaceHistory(eventIdentifier));
+                    continue;
                 }
-                previousSnapshotOdds.putAll(currentSnapshotOdds); // Merge current into previous for the next iteration
-            } catch (IOException | ClassNotFoundException e) {
-                System.err.println("Error processing snapshot for movement map " + file.getName() + ": " + e.getMessage());
+                earlier.appendAll(historyIndex, eventIdentifier);
+                RaceHistory history = earlier.getRaceHistory(eventIdentifier);
+                historyCache.put(history, generation);
+                histories.put(eventIdentifier, history);
             }
         }
-        System.out.println("Finished building last recorded movement map.");
-        return lastMovements;
+        return new ArrayList<>(histories.values());
+    }
+
+    /**
+     * Gets one race's book over time. Races polled since startup have it kept up to date in memory; for any other
+     * race it is folded from the given history, which should be the race's whole history.
+     */
+    public BookSeries getBookSeries(String eventIdentifier, RaceHistory history) {
+        BookSeries series = raceAnalytics.series(eventIdentifier);
+        return series != null ? series : RaceAnalytics.fold(history);
     }
 
-    private Map<Long, MyRunner> loadOddsFromFile(File file) {
-        if (file == null) return new HashMap<>();
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            return (Map<Long, MyRunner>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading odds from " + file.getName() + ": " + e.getMessage());
+    /**
+     * Lists the events of one race day, both tracked in memory and recorded on disk.
+     * @return The event strings in order, which is off-time order within the day.
+     */
+    public NavigableSet<String> listEvents(LocalDate raceDate) {
+        NavigableSet<String> events = new TreeSet<>(snapshotStore.listEvents(raceDate));
+        MarketState state = marketStates.get(raceDate);
+        if (state != null) {
+            events.addAll(state.racesByEvent().keySet());
         }
-        return new HashMap<>();
+        return events;
+    }
+
+    /**
+     * Gets the history for one event within a time range, seeking directly to the relevant part of the journal.
+     * @param fromEpochSecond The start of the range (inclusive).
+     * @param toEpochSecond The end of the range (inclusive).
+     */
+    public RaceHistory getRaceHistory(String eventIdentifier, long fromEpochSecond, long toEpochSecond) {
+        return snapshotStore.getRaceHistory(eventIdentifier, fromEpochSecond, toEpochSecond);
+    }
+
+    /**
+     * Reconstructs the whole market as it stood at a point in time, seeking to the nearest checkpoint in the journal.
+     * @return The market after the last poll at or before that time, or an empty map if there is none.
+     */
+    public Map<Long, RunnerSnapshot> getMarketAt(long epochSecond) {
+        return snapshotStore.getMarketAt(epochSecond);
     }
 
+    /**
+     * A helper method to find today's journal segments, sorted chronologically. Earlier days are left to the
+     * {@link SnapshotStore}, so startup cost does not grow with the amount of history kept.
+     * @return A sorted List of segment files, or an empty list if none are found.
+     */
+    private List<File> getSnapshotFiles(LocalDate today) {
+        File dir = snapshotDir;
+        if (!dir.exists() || !dir.isDirectory()) {
+            System.out.println("Snapshot directory not found.");
+            return Collections.emptyList();
+        }
+
+        List<File> segments = OddsJournal.listSegments(dir).stream()
+                .filter(file -> OddsJournal.dateOf(file) != null && !OddsJournal.dateOf(file).isBefore(today))
+                .toList();
+        if (segments.isEmpty()) {
+            System.out.println("No journal segments found for today.");
+            String[] legacy = dir.list((d, name) -> name.startsWith("odds_") && name.endsWith(".ser"));
+            if (legacy != null && legacy.length > 0) {
+                System.out.println("Found " + legacy.length + " legacy .ser snapshots. Run JournalMigrator to import them.");
+            }
+        }
+        return segments;
+    }
 
-    private void saveOdds(Map<Long, MyRunner> oddsToSave) {
-        new File(SNAPSHOT_DIR).mkdirs(); // Ensure the directory exists
-        String filename = FILENAME_FORMATTER.format(LocalDateTime.now());
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(SNAPSHOT_DIR, filename)))) {
-            oos.writeObject(oddsToSave);
-            System.out.println("Odds snapshot saved to " + filename);
+    private void saveOdds(Map<Long, RunnerSnapshot> oddsToSave, LocalDateTime timestamp) {
+        try {
+            long started = System.nanoTime();
+            long bytesBefore = journal.getBytesWritten();
+            int written = journal.append(timestamp, oddsToSave);
+            journalTime.record(System.nanoTime() - started);
+            journalBytes.record(journal.getBytesWritten() - bytesBefore);
+            // Remap the journal once per poll here, so history and point-in-time queries never have to.
+            snapshotStore.refresh();
+            System.out.println("Odds snapshot journaled (" + written + " of " + oddsToSave.size() + " runners changed)");
         } catch (IOException e) {
             System.err.println("Error saving odds: " + e.getMessage());
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         OddsTracker poller = new OddsTracker();
         WebServer webServer = new WebServer(poller);
 
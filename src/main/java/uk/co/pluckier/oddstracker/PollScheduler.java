@@ -0,0 +1,190 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the poller at an interval that adapts to how close the next race is.
+ * <p>
+ * After each poll the next delay is chosen from configurable bands keyed on the time to the next
+ * off: e.g. every 15 seconds inside the last 10 minutes, every minute inside 30 minutes. Beyond every
+ * band the default interval applies, and once the final race of the day is off the poller idles.
+ * Each poll is scheduled only after the previous one finishes, so a slow fetch can never queue up
+ * back-to-back polls, and no interval is ever shorter than the configured minimum.
+ * <p>
+ * A source may override the cadence entirely (e.g. a replay running at recorded speed). While it does,
+ * the bands and the minimum are ignored and the next poll starts that long after the previous one began.
+ * <p>
+ * Settings (system properties):
+ * <ul>
+ *   <li>{@code oddstracker.poll.bands} - {@code minutesBeforeOff:intervalSeconds} pairs, default {@code 10:15,30:60,120:120}</li>
+ *   <li>{@code oddstracker.poll.defaultSeconds} - interval beyond every band, default 300</li>
+ *   <li>{@code oddstracker.poll.idleSeconds} - interval when no race is still to run, default 1800</li>
+ *   <li>{@code oddstracker.poll.minSeconds} - hard floor on any interval, default 10</li>
+ *   <li>{@code oddstracker.poll.graceMinutes} - how long after its scheduled off a race still counts as upcoming, default 5</li>
+ *   <li>{@code oddstracker.eventZone} - the time zone of event start times, default UTC</li>
+ * </ul>
+ */
+public class PollScheduler {
+
+    private static final DateTimeFormatter EVENT_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+
+    /** Poll every {@code interval} when the next off is at most {@code beforeOff} away. */
+    public record Band(Duration beforeOff, Duration interval) {}
+
+    private final Runnable poll;
+    private final Supplier<Collection<String>> events;
+    private final Supplier<Duration> pacing;
+    private final List<Band> bands;
+    private final Duration defaultInterval;
+    private final Duration idleInterval;
+    private final Duration minInterval;
+    private final Duration grace;
+    private final ZoneId eventZone;
+    /** Parsed off times of the scheduled events, forgotten once an event leaves the schedule. */
+    private final Map<String, Optional<Instant>> offTimes = new ConcurrentHashMap<>();
+    private volatile Duration currentInterval = Duration.ZERO;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "odds-poller"));
+
+    /**
+     * @param poll The poll to run.
+     * @param events Supplies the event strings currently being tracked, from which off times are parsed.
+     * @param pacing Supplies an interval that overrides the schedule, or null to use the schedule.
+     */
+    public PollScheduler(Runnable poll, Supplier<Collection<String>> events, Supplier<Duration> pacing) {
+        this(poll, events, pacing,
+                parseBands(System.getProperty("oddstracker.poll.bands", "10:15,30:60,120:120")),
+                Duration.ofSeconds(Long.getLong("oddstracker.poll.defaultSeconds", 300)),
+                Duration.ofSeconds(Long.getLong("oddstracker.poll.idleSeconds", 1800)),
+                Duration.ofSeconds(Long.getLong("oddstracker.poll.minSeconds", 10)),
+                Duration.ofMinutes(Long.getLong("oddstracker.poll.graceMinutes", 5)),
+                ZoneId.of(System.getProperty("oddstracker.eventZone", "UTC")));
+    }
+
+    public PollScheduler(Runnable poll, Supplier<Collection<String>> events, Supplier<Duration> pacing, List<Band> bands,
+                         Duration defaultInterval, Duration idleInterval, Duration minInterval, Duration grace, ZoneId eventZone) {
+        this.poll = poll;
+        this.events = events;
+        this.pacing = pacing;
+        this.bands = new ArrayList<>(bands);
+        this.bands.sort(Comparator.comparing(Band::beforeOff));
+        this.defaultInterval = defaultInterval;
+        this.idleInterval = idleInterval;
+        this.minInterval = minInterval;
+        this.grace = grace;
+        this.eventZone = eventZone;
+    }
+
+    /** Runs the first poll immediately and schedules each subsequent one when the previous finishes. */
+    public void start() {
+        executor.schedule(this::runPoll, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private void runPoll() {
+        long started = System.nanoTime();
+        try {
+            poll.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error during scheduled poll: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+            Duration paced = pacing.get();
+            if (paced != null) {
+                currentInterval = paced;
+                executor.schedule(this::runPoll, Math.max(0, paced.minus(elapsed).toMillis()), TimeUnit.MILLISECONDS);
+                return;
+            }
+            Duration interval = nextInterval(Instant.now());
+            currentInterval = interval;
+            Duration delay = interval.minus(elapsed);
+            if (elapsed.compareTo(interval) >= 0) {
+                // The poll overran its slot. Rest for the minimum interval rather than starting again straight away.
+                System.err.printf("Poll took %d ms, longer than its %d s interval.%n", elapsed.toMillis(), interval.toSeconds());
+                delay = minInterval;
+            }
+            System.out.printf("Next poll in %d s (interval %d s).%n", delay.toSeconds(), interval.toSeconds());
+            executor.schedule(this::runPoll, Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return The interval chosen after the most recent poll, or zero before the first poll has finished. */
+    public Duration getCurrentInterval() {
+        return currentInterval;
+    }
+
+    /**
+     * Chooses the polling interval for a point in time from the off time of the next race.
+     * @param now The current time.
+     * @return The interval, never shorter than the minimum.
+     */
+    public Duration nextInterval(Instant now) {
+        Instant nextOff = null;
+        Instant cutoff = now.minus(grace);
+        Collection<String> scheduled = events.get();
+        for (String event : scheduled) {
+            Optional<Instant> offTime = offTimes.computeIfAbsent(event, e -> parseOffTime(e, eventZone));
+            if (offTime.isPresent() && offTime.get().isAfter(cutoff) && (nextOff == null || offTime.get().isBefore(nextOff))) {
+                nextOff = offTime.get();
+            }
+        }
+        // Every scheduled event now has an entry, so any extra entries are for events that have left the schedule,
+        // e.g. a sealed day's. Drop them so the cache only ever holds the days being tracked.
+        if (offTimes.size() > scheduled.size()) {
+            offTimes.keySet().retainAll(scheduled);
+        }
+        if (nextOff == null) {
+            return max(idleInterval, minInterval);
+        }
+
+        Duration untilOff = Duration.between(now, nextOff);
+        for (Band band : bands) {
+            if (untilOff.compareTo(band.beforeOff()) <= 0) {
+                return max(band.interval(), minInterval);
+            }
+        }
+        return max(defaultInterval, minInterval);
+    }
+
+    /** Event strings start with the off time as {@code dd-MM-yyyy HH:mm}. */
+    static Optional<Instant> parseOffTime(String event, ZoneId eventZone) {
+        try {
+            return Optional.of(LocalDateTime.parse(event.substring(0, 16), EVENT_FORMATTER).atZone(eventZone).toInstant());
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Parses bands written as comma-separated {@code minutesBeforeOff:intervalSeconds} pairs, e.g. {@code 10:15,30:60}.
+     */
+    static List<Band> parseBands(String spec) {
+        List<Band> parsed = new ArrayList<>();
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid poll band '" + pair + "'; expected minutesBeforeOff:intervalSeconds");
+            }
+            parsed.add(new Band(Duration.ofMinutes(Long.parseLong(parts[0].trim())), Duration.ofSeconds(Long.parseLong(parts[1].trim()))));
+        }
+        return parsed;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+}
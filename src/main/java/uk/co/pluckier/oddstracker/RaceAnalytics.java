@@ -0,0 +1,241 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.HistoryIndex.RunnerHistory;
+import uk.co.pluckier.oddstracker.StartupLoader.Withdrawal;
+
+/**
+ * Race-level aggregates kept alongside the {@link HistoryIndex}: for each race, the book (every runner's latest price)
+ * and a series of its total implied probability, from which the overround and each runner's share of the book
+ * follow.
+ * <p>
+ * The processor thread keeps them up to date as it goes: a poll only recomputes the books of races in which a runner's
+ * record changed, so the cost grows with the number of changes rather than with the size of the market. A runner that
+ * becomes a non-runner leaves the book from that poll on, and its withdrawal time is kept so that its share stops there
+ * too. Runners that drop out of the market keep their last price, as on the dashboard.
+ * <p>
+ * Books cover what memory holds. At startup they are folded from today's history together with the withdrawals
+ * read from the journal, since the history only holds priced points, so they match the books kept live. Other races'
+ * books are folded from their history on demand by {@link #fold(RaceHistory)}, which cannot see withdrawals, so there
+ * a non-runner keeps its last price.
+ */
+public class RaceAnalytics {
+
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the books of every race in the in-memory history, e.g. at startup. Each book's series has a point for each
+     * distinct time at which the history has a price or a runner was withdrawn.
+     * @param withdrawals The withdrawals in those races, which take the runner out of the book from then on.
+     */
+    public static RaceAnalytics fromHistory(HistoryIndex history, Collection<String> events, List<Withdrawal> withdrawals) {
+        Map<String, List<Withdrawal>> withdrawalsByEvent = new HashMap<>();
+        for (Withdrawal withdrawal : withdrawals) {
+            withdrawalsByEvent.computeIfAbsent(withdrawal.event(), e -> new ArrayList<>()).add(withdrawal);
+        }
+        RaceAnalytics analytics = new RaceAnalytics();
+        for (String event : events) {
+            RaceHistory raceHistory = history.getRaceHistory(event);
+            if (raceHistory.pointCount() > 0) {
+                analytics.books.put(event, Book.folded(raceHistory, withdrawalsByEvent.getOrDefault(event, List.of())));
+            }
+        }
+        return analytics;
+    }
+
+    /**
+     * Applies one race day's poll: updates the book of each race in which a runner changed, then adds a point to each
+     * of those races' series. Called on the processor thread.
+     */
+    public void update(MarketState state, long epochSecond) {
+        if (state.changedRunners() == 0) {
+            return;
+        }
+        RunnerStore current = state.current();
+        RunnerStore previous = state.previous();
+        Set<Book> touched = new LinkedHashSet<>();
+        for (int slot : state.changedSlots()) {
+            long runnerId = state.registry().runnerId(slot);
+            String event = current.event(slot);
+            String previousEvent = previous.contains(slot) ? previous.event(slot) : null;
+            if (previousEvent != null && !previousEvent.equals(event)) {
+                Book old = books.get(previousEvent);
+                if (old != null) {
+                    old.remove(runnerId);
+                    touched.add(old);
+                }
+            }
+            if (event != null) {
+                Book book = books.computeIfAbsent(event, e -> new Book());
+                book.set(runnerId, current.odds(slot), epochSecond);
+                touched.add(book);
+            }
+        }
+        touched.forEach(book -> book.record(epochSecond));
+    }
+
+    /**
+     * Drops points before a given time, and the races left with none, e.g. when sealing race days.
+     */
+    public void removeBefore(long epochSecond) {
+        books.values().removeIf(book -> book.removeBefore(epochSecond));
+    }
+
+    /** @return The race's book series as it stands, or null if the race has no book in memory. */
+    public BookSeries series(String event) {
+        Book book = books.get(event);
+        return book == null ? null : book.snapshot();
+    }
+
+    /** @return The number of races with a book in memory. */
+    public int size() {
+        return books.size();
+    }
+
+    /**
+     * Builds a race's book series from its history, replaying each distinct time at which the history has a price.
+     * Used for races with no book in memory.
+     */
+    public static BookSeries fold(RaceHistory history) {
+        return Book.folded(history, List.of()).snapshot();
+    }
+
+    /**
+     * A race's book over time.
+     * @param epochSeconds The time of each point.
+     * @param impliedProbabilities The total implied probability of the priced runners at each point, as a fraction;
+     *                             the overround in percent is this times 100, less 100.
+     * @param size The number of points; the arrays may be longer.
+     * @param withdrawnAt When each runner known to have been withdrawn became a non-runner, in epoch seconds.
+     */
+    public record BookSeries(long[] epochSeconds, double[] impliedProbabilities, int size, Map<Long, Long> withdrawnAt) {
+
+        /** @return The overround in percent at a point, or {@code NaN} if no runner was priced. */
+        public double overround(int index) {
+            return impliedProbabilities[index] > 0 ? impliedProbabilities[index] * 100.0 - 100.0 : Double.NaN;
+        }
+
+        /** @return The time of the last point, or {@code Long.MIN_VALUE} if there are none. */
+        public long lastEpochSecond() {
+            return size == 0 ? Long.MIN_VALUE : epochSeconds[size - 1];
+        }
+
+        /** @return True if the runner was withdrawn at or before the given time. */
+        public boolean isWithdrawn(long runnerId, long epochSecond) {
+            Long withdrawn = withdrawnAt.get(runnerId);
+            return withdrawn != null && withdrawn <= epochSecond;
+        }
+    }
+
+    /**
+     * One race's book and series. Written by the processor thread and read by web requests, so access is synchronized;
+     * like the history, the arrays are only appended to in place, and copied when points are dropped, so snapshots
+     * can share them.
+     */
+    private static final class Book {
+        private final Map<Long, Double> prices = new HashMap<>();
+        private final Map<Long, Long> withdrawnAt = new HashMap<>();
+        private long[] epochSeconds = new long[16];
+        private double[] impliedProbabilities = new double[16];
+        private int size;
+
+        /** Replays a race's history, and any withdrawals in it, in time order. */
+        static Book folded(RaceHistory history, List<Withdrawal> withdrawals) {
+            Book book = new Book();
+            List<RunnerHistory> runners = history.runners();
+            List<Withdrawal> pending = new ArrayList<>(withdrawals);
+            pending.sort(Comparator.comparingLong(Withdrawal::epochSecond));
+            int nextWithdrawal = 0;
+            int[] next = new int[runners.size()];
+            while (true) {
+                long epochSecond = nextWithdrawal < pending.size() ? pending.get(nextWithdrawal).epochSecond() : Long.MAX_VALUE;
+                for (int i = 0; i < next.length; i++) {
+                    RunnerHistory runner = runners.get(i);
+                    if (next[i] < runner.size()) {
+                        epochSecond = Math.min(epochSecond, runner.epochSeconds()[next[i]]);
+                    }
+                }
+                if (epochSecond == Long.MAX_VALUE) {
+                    return book;
+                }
+                for (int i = 0; i < next.length; i++) {
+                    RunnerHistory runner = runners.get(i);
+                    while (next[i] < runner.size() && runner.epochSeconds()[next[i]] == epochSecond) {
+                        book.set(runner.runnerId(), runner.odds()[next[i]], epochSecond);
+                        next[i]++;
+                    }
+                }
+                while (nextWithdrawal < pending.size() && pending.get(nextWithdrawal).epochSecond() == epochSecond) {
+                    // Unpriced, as the live market holds a non-runner.
+                    book.set(pending.get(nextWithdrawal++).runnerId(), Double.NaN, epochSecond);
+                }
+                book.record(epochSecond);
+            }
+        }
+
+        synchronized void set(long runnerId, double price, long epochSecond) {
+            Double old = prices.put(runnerId, price);
+            if (price > 0) {
+                withdrawnAt.remove(runnerId);
+            } else if (old != null && old > 0) {
+                withdrawnAt.put(runnerId, epochSecond);
+            }
+        }
+
+        synchronized void remove(long runnerId) {
+            prices.remove(runnerId);
+            withdrawnAt.remove(runnerId);
+        }
+
+        /** Adds a point for the book as it now stands, replacing any point already recorded for the same second. */
+        synchronized void record(long epochSecond) {
+            double impliedProbability = 0;
+            for (double price : prices.values()) {
+                if (price > 0) {
+                    impliedProbability += 1.0 / price;
+                }
+            }
+            if (size > 0 && epochSeconds[size - 1] == epochSecond) {
+                // Replacing a point that snapshots may already hold: give them the old arrays.
+                size--;
+                epochSeconds = Arrays.copyOf(epochSeconds, epochSeconds.length);
+                impliedProbabilities = Arrays.copyOf(impliedProbabilities, impliedProbabilities.length);
+            } else if (size == epochSeconds.length) {
+                epochSeconds = Arrays.copyOf(epochSeconds, size * 2);
+                impliedProbabilities = Arrays.copyOf(impliedProbabilities, size * 2);
+            }
+            epochSeconds[size] = epochSecond;
+            impliedProbabilities[size] = impliedProbability;
+            size++;
+        }
+
+        /** @return True if the book has no points left. */
+        synchronized boolean removeBefore(long epochSecond) {
+            int first = 0;
+            while (first < size && epochSeconds[first] < epochSecond) {
+                first++;
+            }
+            if (first > 0) {
+                epochSeconds = Arrays.copyOfRange(epochSeconds, first, Math.max(first + 16, epochSeconds.length));
+                impliedProbabilities = Arrays.copyOfRange(impliedProbabilities, first, Math.max(first + 16, impliedProbabilities.length));
+                size -= first;
+            }
+            return size == 0;
+        }
+
+        synchronized BookSeries snapshot() {
+            return new BookSeries(epochSeconds, impliedProbabilities, size, Map.copyOf(withdrawnAt));
+        }
+    }
+}
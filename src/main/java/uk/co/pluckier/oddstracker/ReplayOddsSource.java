@@ -0,0 +1,106 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Plays back a recorded journal directory poll by poll, with the recorded timestamps.
+ * <p>
+ * Segments are decoded on a background thread into a small bounded queue, so memory stays flat however
+ * long the recording is. Polls are paced by the recorded gaps divided by {@code speed}: 1 replays in real
+ * time, 100 a hundred times faster, and 0 as fast as the tracker can process them. Once the recording
+ * is exhausted {@link #fetch()} returns null and the normal schedule resumes.
+ * <p>
+ * Settings: {@code oddstracker.replay.dir} (required, and not the directory being written to) and
+ * {@code oddstracker.replay.speed} (default 1).
+ */
+public class ReplayOddsSource implements OddsSource {
+
+    private record Frame(long epochSecond, Map<Long, RunnerSnapshot> runners) {}
+
+    private static final Frame END = new Frame(Long.MIN_VALUE, Map.of());
+
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(64);
+    private final double speed;
+    private final Thread reader;
+    private Frame upcoming;
+    private volatile Duration pacing;
+
+    /**
+     * @param directory The journal directory to play back.
+     * @param speed The playback speed multiplier, or 0 for as fast as possible.
+     */
+    public ReplayOddsSource(File directory, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must be zero or positive: " + speed);
+        }
+        List<File> segments = OddsJournal.listSegments(directory);
+        System.out.println("Replaying " + segments.size() + " journal segments from " + directory
+                + (speed == 0 ? " as fast as possible." : " at " + speed + "x."));
+        this.speed = speed;
+        this.reader = new Thread(() -> read(segments), "odds-replay");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read(List<File> segments) {
+        try {
+            for (File segment : segments) {
+                JournalReader.replay(segment, poll -> {
+                    try {
+                        // The reader reuses its state map, so each queued poll needs its own copy.
+                        queue.put(new Frame(poll.epochSecond(), new HashMap<>(poll.state())));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException("Replay interrupted", e);
+                    }
+                });
+            }
+            queue.put(END);
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            System.err.println("Replay stopped: " + e.getMessage());
+            queue.clear(); // Make room for the end marker.
+            queue.offer(END);
+        }
+    }
+
+    @Override
+    public synchronized MarketSnapshot fetch() throws InterruptedException {
+        long started = System.nanoTime();
+        Frame frame = upcoming != null ? upcoming : queue.take();
+        if (frame == END) {
+            upcoming = END;
+            pacing = null;
+            return null;
+        }
+        // Look one poll ahead so the gap to the next recorded poll is known.
+        upcoming = queue.take();
+        if (upcoming == END) {
+            System.out.println("Replay finished.");
+            pacing = null;
+        } else {
+            pacing = speed == 0 ? Duration.ZERO
+                    : Duration.ofMillis((long) ((upcoming.epochSecond() - frame.epochSecond()) * 1000 / speed));
+        }
+        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochSecond(frame.epochSecond()), ZoneId.systemDefault());
+        return new MarketSnapshot(timestamp, frame.runners(), 0, System.nanoTime() - started);
+    }
+
+    @Override
+    public Duration pacing() {
+        return pacing;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+    }
+}
@@ -0,0 +1,88 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives every runner the tracker has seen a dense slot number, and interns runner names and event strings
+ * as int ids, so that market state can be held in parallel primitive arrays indexed by slot (see
+ * {@link RunnerStore}). Slots and string ids are never reused or reassigned.
+ * <p>
+ * Only the poll processor registers runners and strings. Any thread may read slots and ids that were
+ * published to it through a {@link MarketState}.
+ */
+public final class RunnerRegistry {
+
+    /** The string id standing for a null name or event. */
+    public static final int NULL_STRING = -1;
+
+    private final LongIntHashMap slots;
+    private volatile long[] runnerIds;
+    private int size;
+    /** Only used by the writer, to intern; readers go through {@link #strings}. */
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private volatile String[] strings = new String[256];
+
+    public RunnerRegistry(int expectedRunners) {
+        this.slots = new LongIntHashMap(expectedRunners);
+        this.runnerIds = new long[Math.max(16, expectedRunners)];
+    }
+
+    /** Gets a runner's slot, assigning the next free one if it has none. Writer only. */
+    public int register(long runnerId) {
+        int slot = slots.get(runnerId);
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = size;
+        long[] ids = runnerIds;
+        if (slot == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[slot] = runnerId;
+        runnerIds = ids;
+        slots.putNew(runnerId, slot);
+        size++;
+        return slot;
+    }
+
+    /** @return The runner's slot, or -1 if it has never been registered. */
+    public int find(long runnerId) {
+        return slots.get(runnerId);
+    }
+
+    public long runnerId(int slot) {
+        return runnerIds[slot];
+    }
+
+    /** @return The number of slots assigned. Reliable on the writer; a lower bound elsewhere. */
+    public int size() {
+        return size;
+    }
+
+    /** Gets the id for a string, assigning one if it is new. Writer only. */
+    public int intern(String value) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        id = stringIds.size();
+        String[] table = strings;
+        if (id == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[id] = value;
+        strings = table;
+        stringIds.put(value, id);
+        return id;
+    }
+
+    /** @return The interned string, or null for {@link #NULL_STRING}. */
+    public String string(int id) {
+        return id == NULL_STRING ? null : strings[id];
+    }
+}
@@ -0,0 +1,43 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import uk.co.kennah.tkapi.model.MyRunner;
+
+/**
+ * A single runner's state at a point in time.
+ * This is the tracker's own copy of the fields it needs from {@link MyRunner}, so that stored
+ * snapshots do not depend on the serialized form of a class from an external jar.
+ * A {@code null} or non-positive price means the runner is not currently priced (e.g. a non-runner).
+ */
+public record RunnerSnapshot(String name, Double odds, String event) {
+
+    private static final DateTimeFormatter RACE_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    public static RunnerSnapshot from(MyRunner runner) {
+        return new RunnerSnapshot(runner.getName(), runner.getOdds(), runner.getEvent());
+    }
+
+    /** @return True if the runner has a usable price. */
+    public boolean isPriced() {
+        return odds != null && odds > 0;
+    }
+
+    /** @return The day of the runner's race, or null if its event does not start with one. */
+    public LocalDate raceDate() {
+        return raceDate(event);
+    }
+
+    /** Event strings start with the race's off time as {@code dd-MM-yyyy HH:mm}. */
+    public static LocalDate raceDate(String event) {
+        if (event == null || event.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(event.substring(0, 10), RACE_DATE_FORMATTER);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package uk.co.pluckier.oddstracker;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of runner records, held in parallel primitive arrays indexed by {@link RunnerRegistry}
+ * slot: the price ({@code NaN} when the runner has none) and the interned name and event ids. This replaces
+ * a {@code Map<Long, RunnerSnapshot>} without boxing a key, a price or a record per runner.
+ * <p>
+ * Stores are built once with a {@link Builder} and never modified after, so they can be shared between
+ * threads and between successive {@link MarketState}s.
+ */
+public final class RunnerStore {
+
+    /** Marks a slot with no runner in this store, in the name array. */
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    /** Receives each runner in a store. */
+    public interface SlotConsumer {
+        void accept(int slot);
+    }
+
+    private final RunnerRegistry registry;
+    private final double[] odds;
+    private final int[] names;
+    private final int[] events;
+    private final int size;
+
+    private RunnerStore(RunnerRegistry registry, double[] odds, int[] names, int[] events, int size) {
+        this.registry = registry;
+        this.odds = odds;
+        this.names = names;
+        this.events = events;
+        this.size = size;
+    }
+
+    public static RunnerStore empty(RunnerRegistry registry) {
+        return new Builder(registry, 0).build();
+    }
+
+    public RunnerRegistry registry() {
+        return registry;
+    }
+
+    /** @return The number of runners in the store. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int slot) {
+        return slot >= 0 && slot < names.length && names[slot] != ABSENT;
+    }
+
+    /** @return The runner's price, or {@code NaN} if it has none or is not in the store. */
+    public double odds(int slot) {
+        return contains(slot) ? odds[slot] : Double.NaN;
+    }
+
+    /** @return True if the runner is in the store with a usable price, as {@link RunnerSnapshot#isPriced()}. */
+    public boolean isPriced(int slot) {
+        return contains(slot) && odds[slot] > 0;
+    }
+
+    public String name(int slot) {
+        return contains(slot) ? registry.string(names[slot]) : null;
+    }
+
+    public String event(int slot) {
+        return contains(slot) ? registry.string(events[slot]) : null;
+    }
+
+    /** @return The runner's interned event id, or {@link RunnerRegistry#NULL_STRING} if it has none or is not in the store. */
+    public int eventId(int slot) {
+        return contains(slot) ? events[slot] : RunnerRegistry.NULL_STRING;
+    }
+
+    /** @return True if the runner is in the store with exactly this record. */
+    boolean sameRecord(int slot, double price, int nameId, int eventId) {
+        return contains(slot) && samePrice(odds[slot], price) && names[slot] == nameId && events[slot] == eventId;
+    }
+
+    /** Looks up a runner by selection id and materializes it as a record, for callers off the hot path. */
+    public RunnerSnapshot get(long runnerId) {
+        int slot = registry.find(runnerId);
+        if (!contains(slot)) {
+            return null;
+        }
+        double price = odds[slot];
+        return new RunnerSnapshot(name(slot), Double.isNaN(price) ? null : price, event(slot));
+    }
+
+    /** Calls back with the slot of every runner in the store, in slot order. */
+    public void forEach(SlotConsumer consumer) {
+        for (int slot = 0; slot < names.length; slot++) {
+            if (names[slot] != ABSENT) {
+                consumer.accept(slot);
+            }
+        }
+    }
+
+    /** Starts a copy of this store to modify. The copy's arrays are new, so this store is unaffected. */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /** Two prices are the same if they are equal or both missing. */
+    static boolean samePrice(double a, double b) {
+        return a == b || (Double.isNaN(a) && Double.isNaN(b));
+    }
+
+    /** Accumulates runners for a new store. Single use: {@link #build()} hands its arrays to the store. */
+    public static final class Builder {
+
+        private final RunnerRegistry registry;
+        private double[] odds;
+        private int[] names;
+        private int[] events;
+        private int size;
+
+        public Builder(RunnerRegistry registry, int expectedSlots) {
+            this.registry = registry;
+            int capacity = Math.max(16, expectedSlots);
+            this.odds = new double[capacity];
+            this.names = new int[capacity];
+            this.events = new int[capacity];
+            Arrays.fill(names, ABSENT);
+        }
+
+        private Builder(RunnerStore store) {
+            this.registry = store.registry;
+            int capacity = Math.max(store.names.length, store.registry.size());
+            this.odds = Arrays.copyOf(store.odds, capacity);
+            this.names = Arrays.copyOf(store.names, capacity);
+            this.events = Arrays.copyOf(store.events, capacity);
+            Arrays.fill(names, store.names.length, capacity, ABSENT);
+            this.size = store.size;
+        }
+
+        /**
+         * Adds or replaces a runner.
+         * @param price The price, or {@code NaN} for none.
+         * @param nameId The interned name.
+         * @param eventId The interned event.
+         */
+        public Builder put(int slot, double price, int nameId, int eventId) {
+            if (slot >= names.length) {
+                int capacity = Math.max(slot + 1, names.length * 2);
+                int oldLength = names.length;
+                odds = Arrays.copyOf(odds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                events = Arrays.copyOf(events, capacity);
+                Arrays.fill(names, oldLength, capacity, ABSENT);
+            }
+            if (names[slot] == ABSENT) {
+                size++;
+            }
+            odds[slot] = price;
+            names[slot] = nameId;
+            events[slot] = eventId;
+            return this;
+        }
+
+        public boolean contains(int slot) {
+            return slot < names.length && names[slot] != ABSENT;
+        }
+
+        public RunnerStore build() {
+            RunnerStore store = new RunnerStore(registry, odds, names, events, size);
+            odds = null;
+            names = null;
+            events = null;
+            return store;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Encodes poll records into a single journal segment file, in the layout described on {@link OddsJournal}.
+ * A writer owns its file's string dictionary and the last market it wrote, so one writer is used per file
+ * and never shared between threads.
+ */
+final class SegmentWriter implements Closeable {
+
+    private final File file;
+    private final OutputStream out;
+    private final int checkpointInterval;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final Map<Long, RunnerSnapshot> lastWritten = new HashMap<>();
+    private int pollsSinceCheckpoint;
+    private long bytesWritten;
+
+    /** Creates (or truncates) a segment file and writes its header. */
+    SegmentWriter(File file, int checkpointInterval) throws IOException {
+        this.file = file;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.out = new FileOutputStream(file);
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(OddsJournal.MAGIC);
+        header.writeShort(OddsJournal.VERSION);
+        header.flush();
+        bytesWritten = Integer.BYTES + Short.BYTES;
+    }
+
+    /**
+     * Writes a poll holding the runners that changed since the last poll, or the full market at a checkpoint.
+     * @return The number of runner entries written.
+     */
+    int writePoll(long epochSecond, Map<Long, RunnerSnapshot> odds) throws IOException {
+        return writePoll(epochSecond, odds, null);
+    }
+
+    /**
+     * Writes a poll. With a {@code sampleEvent} predicate the record is flagged {@link OddsJournal#FLAG_SPARSE}: it
+     * still holds only the changed runners, followed by the events the predicate accepted, and readers take the
+     * changed runners plus every runner in those events as history points. A sparse poll with nothing to write is
+     * dropped altogether.
+     * @param sampleEvent Accepts events whose runners are all sampled at this time, or null for an ordinary poll.
+     * @return The number of runner entries written.
+     */
+    int writePoll(long epochSecond, Map<Long, RunnerSnapshot> odds, Predicate<String> sampleEvent) throws IOException {
+        boolean checkpoint = pollsSinceCheckpoint == 0;
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(Math.max(64, odds.size() * OddsJournal.ENTRY_BYTES));
+        DataOutputStream entries = new DataOutputStream(entryBytes);
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream(stringBytes);
+        Map<String, Integer> added = new HashMap<>();
+        Set<String> sampledEvents = new LinkedHashSet<>();
+        int count = 0;
+
+        for (Map.Entry<Long, RunnerSnapshot> entry : odds.entrySet()) {
+            RunnerSnapshot runner = entry.getValue();
+            if (runner == null) {
+                continue;
+            }
+            if (checkpoint || !runner.equals(lastWritten.get(entry.getKey()))) {
+                entries.writeLong(entry.getKey());
+                entries.writeDouble(runner.odds() != null ? runner.odds() : Double.NaN);
+                entries.writeInt(intern(runner.name(), strings, added));
+                entries.writeInt(intern(runner.event(), strings, added));
+                count++;
+            }
+            if (sampleEvent != null && runner.event() != null && !sampledEvents.contains(runner.event()) && sampleEvent.test(runner.event())) {
+                sampledEvents.add(runner.event());
+            }
+        }
+        if (!checkpoint) {
+            for (Long runnerId : lastWritten.keySet()) {
+                if (odds.get(runnerId) == null) {
+                    entries.writeLong(runnerId);
+                    entries.writeDouble(Double.NaN);
+                    entries.writeInt(OddsJournal.REMOVED);
+                    entries.writeInt(OddsJournal.REMOVED);
+                    count++;
+                }
+            }
+        }
+        if (sampleEvent != null) {
+            if (count == 0 && sampledEvents.isEmpty()) {
+                return 0;
+            }
+            entries.writeInt(sampledEvents.size());
+            for (String event : sampledEvents) {
+                entries.writeInt(intern(event, strings, added));
+            }
+        }
+
+        // Assemble the whole record in memory so that a crash can only ever truncate the final record.
+        ByteArrayOutputStream record = new ByteArrayOutputStream(stringBytes.size() + entryBytes.size() + 32);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        stringBytes.writeTo(recordOut);
+        recordOut.writeByte(OddsJournal.TAG_POLL);
+        recordOut.writeLong(epochSecond);
+        recordOut.writeByte((checkpoint ? OddsJournal.FLAG_CHECKPOINT : 0) | (sampleEvent != null ? OddsJournal.FLAG_SPARSE : 0));
+        recordOut.writeInt(count);
+        entryBytes.writeTo(recordOut);
+        recordOut.flush();
+        record.writeTo(out);
+        out.flush();
+        bytesWritten += record.size();
+        dictionary.putAll(added);
+
+        lastWritten.clear();
+        odds.forEach((runnerId, runner) -> {
+            if (runner != null) {
+                lastWritten.put(runnerId, runner);
+            }
+        });
+        pollsSinceCheckpoint = (pollsSinceCheckpoint + 1) % checkpointInterval;
+        return count;
+    }
+
+    /** Looks a string up in the dictionary, assigning it the next id if it is new to this record and the file. */
+    private int intern(String value, DataOutputStream strings, Map<String, Integer> added) throws IOException {
+        if (value == null) {
+            return OddsJournal.NULL_STRING;
+        }
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = added.get(value);
+        }
+        if (id == null) {
+            id = dictionary.size() + added.size();
+            added.put(value, id);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            strings.writeByte(OddsJournal.TAG_STRING);
+            strings.writeInt(id);
+            strings.writeInt(bytes.length);
+            strings.write(bytes);
+        }
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /** @return The bytes written to this file, including its header. */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,87 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Keeps one authenticated exchange session alive across polls.
+ * <p>
+ * The session is created lazily on the first fetch and reused until it reaches its maximum age or a
+ * fetch fails, at which point it is dropped and a new one is created for a single retry. Login and
+ * data latency are timed separately so the cost of re-authenticating is visible.
+ * <p>
+ * Fetches are serialized: the client is only ever used by one fetch at a time, and a failed fetch can
+ * never log out a session another fetch is still using. Nothing shows that the exchange client is safe
+ * for concurrent use, so a source that fetches several days in parallel gives each its own manager and client.
+ */
+public class SessionManager implements AutoCloseable {
+
+    /** The outcome of one fetch, with the time spent logging in (zero when the session was reused) and fetching data. */
+    public record FetchResult(Map<Long, RunnerSnapshot> runners, long loginNanos, long dataNanos) {}
+
+    private final MarketDataClient client;
+    private final Duration maxSessionAge;
+    private boolean loggedIn;
+    private long loggedInAt;
+
+    public SessionManager(MarketDataClient client) {
+        this(client, Duration.ofMinutes(Long.getLong("oddstracker.session.maxAgeMinutes", 240)));
+    }
+
+    public SessionManager(MarketDataClient client, Duration maxSessionAge) {
+        this.client = client;
+        this.maxSessionAge = maxSessionAge;
+    }
+
+    /**
+     * Fetches a race day's runners, logging in first if there is no live session.
+     * If the fetch fails the session is discarded and the fetch retried once on a fresh one.
+     * @throws Exception If logging in fails, or the retry fails too.
+     */
+    public synchronized FetchResult fetch(LocalDate date) throws Exception {
+        long loginNanos = ensureLoggedIn();
+        long started = System.nanoTime();
+        try {
+            return new FetchResult(client.fetch(date), loginNanos, System.nanoTime() - started);
+        } catch (Exception e) {
+            System.err.println("Fetch failed (" + e.getMessage() + "); re-authenticating and retrying once.");
+            invalidate();
+            loginNanos += ensureLoggedIn();
+            started = System.nanoTime();
+            return new FetchResult(client.fetch(date), loginNanos, System.nanoTime() - started);
+        }
+    }
+
+    /** @return The time spent logging in, or zero if the current session was still usable. */
+    private long ensureLoggedIn() throws Exception {
+        if (loggedIn && System.nanoTime() - loggedInAt > maxSessionAge.toNanos()) {
+            System.out.println("Session is older than " + maxSessionAge.toMinutes() + " minutes; renewing.");
+            invalidate();
+        }
+        if (loggedIn) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        client.login();
+        loggedIn = true;
+        loggedInAt = System.nanoTime();
+        return loggedInAt - started;
+    }
+
+    private void invalidate() {
+        if (loggedIn) {
+            try {
+                client.logout();
+            } catch (Exception e) {
+                // The session is being thrown away regardless.
+            }
+        }
+        loggedIn = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        invalidate();
+    }
+}
@@ -0,0 +1,440 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+
+/**
+ * A seekable, memory-mapped reader over the {@link OddsJournal} segments and daily archives in a directory.
+ * <p>
+ * Each segment is mapped once and scanned once to build its string dictionary and a sparse index of
+ * checkpoint timestamps to file offsets. A time-range query then binary-searches that index for the
+ * last checkpoint at or before the start of the range and decodes forward from there, so its cost
+ * depends on the size of the range rather than the amount of history on disk.
+ * <p>
+ * Queries never touch the directory or take a lock: they read an immutable list of mapped segments
+ * published by {@link #refresh()}, which whoever changes the directory calls (the tracker after each
+ * journal append, the compactor after each pass). A refresh remaps segments that are still being
+ * written and extends their index, and drops files removed by compaction or retention.
+ */
+public class SnapshotStore {
+
+    private final File directory;
+    /** The indexers behind {@link #segments}, by file name. Only touched by {@link #refresh()}. */
+    private final Map<String, Indexer> indexers = new HashMap<>();
+    private volatile List<Segment> segments = List.of();
+
+    public SnapshotStore(File directory) {
+        this.directory = directory;
+        refresh();
+    }
+
+    /**
+     * Builds the odds history for one event, restricted to a time range.
+     * @param eventIdentifier The full event string.
+     * @param fromEpochSecond The start of the range (inclusive).
+     * @param toEpochSecond The end of the range (inclusive).
+     * @return The history, with an empty runner list if nothing was recorded in the range.
+     */
+    public RaceHistory getRaceHistory(String eventIdentifier, long fromEpochSecond, long toEpochSecond) {
+        return readHistory(eventIdentifier, fromEpochSecond, toEpochSecond).getRaceHistory(eventIdentifier);
+    }
+
+    /**
+     * Reads the odds history for one event within a time range into a fresh index.
+     * @return The index, which holds nothing for the event if nothing was recorded in the range.
+     */
+    public HistoryIndex readHistory(String eventIdentifier, long fromEpochSecond, long toEpochSecond) {
+        return readHistory(List.of(eventIdentifier), fromEpochSecond, toEpochSecond);
+    }
+
+    /**
+     * Reads the odds history for several events within a time range into a fresh index, decoding each segment once
+     * for all of them.
+     * @return The index, which holds nothing for an event if nothing was recorded for it in the range.
+     */
+    public HistoryIndex readHistory(Collection<String> eventIdentifiers, long fromEpochSecond, long toEpochSecond) {
+        HistoryIndex range = new HistoryIndex();
+        for (Segment segment : segments) {
+            if (segment.lastEpochSecond < fromEpochSecond || segment.firstEpochSecond > toEpochSecond) {
+                continue;
+            }
+            boolean[] wanted = new boolean[segment.dictionarySize];
+            boolean any = false;
+            for (String eventIdentifier : eventIdentifiers) {
+                Integer eventId = segment.ids.get(eventIdentifier);
+                // The id map is shared with later refreshes, so it may know strings this view does not.
+                if (eventId != null && eventId < wanted.length) {
+                    wanted[eventId] = true;
+                    any = true;
+                }
+            }
+            if (any) {
+                segment.readEvents(wanted, fromEpochSecond, toEpochSecond, range);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Lists the events recorded on disk for one race day, i.e. whose event string starts with that date.
+     * @return The event strings, in no particular order.
+     */
+    public Set<String> listEvents(LocalDate raceDate) {
+        Set<String> events = new HashSet<>();
+        for (Segment segment : segments) {
+            // A day's events can only have been journaled on or before that day.
+            LocalDate segmentDate = OddsJournal.dateOf(segment.file);
+            if (segmentDate != null && segmentDate.isAfter(raceDate)) {
+                continue;
+            }
+            for (int id = 0; id < segment.dictionarySize; id++) {
+                String value = segment.dictionary[id];
+                if (value != null && raceDate.equals(RunnerSnapshot.raceDate(value))) {
+                    events.add(value);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Lists every event recorded in a file for a day before the given one, i.e. every event whose history may
+     * extend back before that day. Files whose day cannot be told from their name are included. Events are told
+     * apart from the runner names sharing the dictionary by the race date they start with.
+     * @return The event strings, in no particular order.
+     */
+    public Set<String> listEventsBefore(LocalDate day) {
+        Set<String> events = new HashSet<>();
+        for (Segment segment : segments) {
+            LocalDate segmentDate = OddsJournal.dateOf(segment.file);
+            if (segmentDate != null && !segmentDate.isBefore(day)) {
+                continue;
+            }
+            for (int id = 0; id < segment.dictionarySize; id++) {
+                String value = segment.dictionary[id];
+                if (value != null && RunnerSnapshot.raceDate(value) != null) {
+                    events.add(value);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Reconstructs the whole market as it stood at a point in time.
+     * @param epochSecond The point in time.
+     * @return The market after the last poll at or before that time, or an empty map if there is none.
+     */
+    public Map<Long, RunnerSnapshot> getMarketAt(long epochSecond) {
+        Segment latest = null;
+        for (Segment segment : segments) {
+            if (segment.checkpointCount > 0 && segment.firstEpochSecond <= epochSecond) {
+                latest = segment;
+            }
+        }
+        return latest == null ? new HashMap<>() : latest.readMarket(epochSecond);
+    }
+
+    /**
+     * Maps any new segments, extends the index of any that have grown and drops any that were removed, then
+     * publishes the result to queries. Costs a directory listing and a length check per file, so it is called when
+     * the directory changes rather than per query.
+     */
+    public synchronized void refresh() {
+        List<Segment> current = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (File file : OddsJournal.listSegments(directory)) {
+            Indexer indexer = indexers.get(file.getName());
+            // Archives are only ever replaced whole, so a changed timestamp means the old index is stale.
+            if (indexer == null || (OddsJournal.isArchive(file) && file.lastModified() != indexer.lastModified)) {
+                indexer = new Indexer(file);
+                indexers.put(file.getName(), indexer);
+            }
+            try {
+                current.add(indexer.refresh());
+                names.add(file.getName());
+            } catch (IOException e) {
+                System.err.println("Error indexing journal segment " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        indexers.keySet().retainAll(names);
+        segments = List.copyOf(current);
+    }
+
+    /**
+     * Maps one segment and indexes it incrementally as it grows, publishing an immutable {@link Segment} view after
+     * each pass. The dictionary and checkpoint arrays are shared with those views: a pass only writes past the
+     * counts already published, and copies an array rather than writing into it when it has to grow.
+     */
+    private static final class Indexer {
+        private final File file;
+        private final long lastModified;
+        private ByteBuffer buffer;
+        private long mappedLength = -1;
+        private int indexedTo;
+        private Segment view;
+
+        private String[] dictionary = new String[64];
+        private int dictionarySize;
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private long[] checkpointEpochSeconds = new long[16];
+        private int[] checkpointOffsets = new int[16];
+        private int checkpointCount;
+        private long firstEpochSecond = Long.MAX_VALUE;
+        private long lastEpochSecond = Long.MIN_VALUE;
+
+        Indexer(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+        }
+
+        /** @return A view of the segment as indexed up to its current length. */
+        Segment refresh() throws IOException {
+            long length = file.length();
+            if (length == mappedLength) {
+                return view;
+            }
+            buffer = JournalReader.map(file);
+            mappedLength = length;
+            if (indexedTo == 0) {
+                JournalReader.checkHeader(buffer, file.getName());
+                indexedTo = buffer.position();
+            }
+            index();
+            view = new Segment(file, buffer, indexedTo, dictionary, dictionarySize, ids,
+                    checkpointEpochSeconds, checkpointOffsets, checkpointCount, firstEpochSecond, lastEpochSecond);
+            return view;
+        }
+
+    /** Scans complete records after the indexed position, skipping over poll entries without decoding them. */
+        private void index() {
+            ByteBuffer view = buffer.duplicate();
+            view.position(indexedTo);
+            while (view.hasRemaining()) {
+                int offset = view.position();
+                byte tag = view.get();
+                if (tag == OddsJournal.TAG_STRING) {
+                    if (view.remaining() < 2 * Integer.BYTES) {
+                        break;
+                    }
+                    int id = view.getInt();
+                    int length = view.getInt();
+                    if (view.remaining() < length) {
+                        break;
+                    }
+                    String value = JournalReader.readString(view, length);
+                    if (id >= dictionary.length) {
+                        dictionary = Arrays.copyOf(dictionary, Math.max(id + 1, dictionary.length * 2));
+                    }
+                    dictionary[id] = value;
+                    dictionarySize = Math.max(dictionarySize, id + 1);
+                    ids.put(value, id);
+                } else if (tag == OddsJournal.TAG_POLL) {
+                    if (view.remaining() < JournalReader.POLL_HEADER_BYTES) {
+                        break;
+                    }
+                    long epochSecond = view.getLong();
+                    byte flags = view.get();
+                    boolean checkpoint = (flags & OddsJournal.FLAG_CHECKPOINT) != 0;
+                    long entryBytes = (long) view.getInt() * OddsJournal.ENTRY_BYTES;
+                    if (view.remaining() < entryBytes) {
+                        break;
+                    }
+                    view.position(view.position() + (int) entryBytes);
+                    if ((flags & OddsJournal.FLAG_SPARSE) != 0) {
+                        if (view.remaining() < Integer.BYTES) {
+                            break;
+                        }
+                        long eventBytes = (long) view.getInt() * Integer.BYTES;
+                        if (view.remaining() < eventBytes) {
+                            break;
+                        }
+                        view.position(view.position() + (int) eventBytes);
+                    }
+                    if (checkpoint) {
+                        addCheckpoint(epochSecond, offset);
+                    }
+                    firstEpochSecond = Math.min(firstEpochSecond, epochSecond);
+                    lastEpochSecond = Math.max(lastEpochSecond, epochSecond);
+                } else {
+                    System.err.println("Corrupt record tag " + tag + " in " + file.getName() + "; indexing stopped.");
+                    break;
+                }
+                indexedTo = view.position();
+            }
+        }
+
+        private void addCheckpoint(long epochSecond, int offset) {
+            if (checkpointCount == checkpointOffsets.length) {
+                checkpointEpochSeconds = Arrays.copyOf(checkpointEpochSeconds, checkpointCount * 2);
+                checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpointCount * 2);
+            }
+            checkpointEpochSeconds[checkpointCount] = epochSecond;
+            checkpointOffsets[checkpointCount] = offset;
+            checkpointCount++;
+        }
+    }
+
+    /**
+     * An immutable view of a mapped segment, its dictionary and its sparse checkpoint index.
+     * @param indexedTo The end of the last complete record covered by the view.
+     */
+    private record Segment(File file, ByteBuffer buffer, int indexedTo, String[] dictionary, int dictionarySize,
+                           Map<String, Integer> ids, long[] checkpointEpochSeconds, int[] checkpointOffsets,
+                           int checkpointCount, long firstEpochSecond, long lastEpochSecond) {
+
+        /** @return The offset of the last checkpoint at or before the given time, or of the first checkpoint. */
+        private int seek(long epochSecond) {
+            int index = Arrays.binarySearch(checkpointEpochSeconds, 0, checkpointCount, epochSecond);
+            if (index < 0) {
+                index = Math.max(0, -index - 2);
+            }
+            return checkpointOffsets[index];
+        }
+
+        /**
+         * Decodes the runners of a set of events between two times, appending a history point per runner per poll.
+         * @param wanted Flags the dictionary ids of the events to read.
+         */
+        void readEvents(boolean[] wanted, long fromEpochSecond, long toEpochSecond, HistoryIndex out) {
+            if (checkpointCount == 0) {
+                return;
+            }
+            Map<Long, RunnerSnapshot> eventState = new HashMap<>();
+            Map<Long, Integer> runnerEvents = new HashMap<>();
+            Map<Long, RunnerSnapshot> sampled = new HashMap<>();
+            boolean[] sampledEvents = new boolean[wanted.length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(seek(fromEpochSecond));
+            view.limit(indexedTo);
+            while (view.hasRemaining()) {
+                byte tag = view.get();
+                if (tag == OddsJournal.TAG_STRING) {
+                    view.getInt();
+                    int length = view.getInt();
+                    view.position(view.position() + length);
+                    continue;
+                }
+                long epochSecond = view.getLong();
+                byte flags = view.get();
+                boolean checkpoint = (flags & OddsJournal.FLAG_CHECKPOINT) != 0;
+                boolean sparse = (flags & OddsJournal.FLAG_SPARSE) != 0;
+                int count = view.getInt();
+                if (epochSecond > toEpochSecond) {
+                    break;
+                }
+                if (checkpoint) {
+                    eventState.clear();
+                    runnerEvents.clear();
+                }
+                sampled.clear();
+                for (int i = 0; i < count; i++) {
+                    long runnerId = view.getLong();
+                    double odds = view.getDouble();
+                    int nameId = view.getInt();
+                    int entryEventId = view.getInt();
+                    if (entryEventId >= 0 && entryEventId < wanted.length && wanted[entryEventId]) {
+                        RunnerSnapshot runner = new RunnerSnapshot(lookup(nameId), Double.isNaN(odds) ? null : odds, dictionary[entryEventId]);
+                        eventState.put(runnerId, runner);
+                        runnerEvents.put(runnerId, entryEventId);
+                        if (sparse) {
+                            sampled.put(runnerId, runner);
+                        }
+                    } else if (!eventState.isEmpty() && eventState.remove(runnerId) != null) {
+                        // Covers both removals and a runner being moved to another event.
+                        runnerEvents.remove(runnerId);
+                    }
+                }
+                if (sparse && sampledEvents(view, wanted, sampledEvents)) {
+                    runnerEvents.forEach((runnerId, eventId) -> {
+                        if (sampledEvents[eventId]) {
+                            sampled.put(runnerId, eventState.get(runnerId));
+                        }
+                    });
+                }
+                if (epochSecond >= fromEpochSecond) {
+                    // A compacted poll only sampled some runners; the rest were carried forward unchanged.
+                    out.append(epochSecond, sparse ? sampled : eventState);
+                }
+            }
+        }
+
+        /**
+         * Reads the sampled-event list that ends a sparse poll, flagging the wanted events it names.
+         * @return True if it names any wanted event.
+         */
+        private static boolean sampledEvents(ByteBuffer view, boolean[] wanted, boolean[] sampled) {
+            Arrays.fill(sampled, false);
+            boolean found = false;
+            for (int i = view.getInt(); i > 0; i--) {
+                int eventId = view.getInt();
+                if (eventId >= 0 && eventId < wanted.length && wanted[eventId]) {
+                    sampled[eventId] = true;
+                    found = true;
+                }
+            }
+            return found;
+        }
+
+        /** Resolves a dictionary id written in an entry, which may be {@link OddsJournal#NULL_STRING}. */
+        private String lookup(int id) {
+            return id == OddsJournal.NULL_STRING ? null : dictionary[id];
+        }
+
+        /** Decodes the whole market from the nearest checkpoint up to the given time. */
+        Map<Long, RunnerSnapshot> readMarket(long epochSecond) {
+            Map<Long, RunnerSnapshot> state = new HashMap<>();
+            ByteBuffer view = buffer.duplicate();
+            view.position(seek(epochSecond));
+            view.limit(indexedTo);
+            while (view.hasRemaining()) {
+                byte tag = view.get();
+                if (tag == OddsJournal.TAG_STRING) {
+                    view.getInt();
+                    int length = view.getInt();
+                    view.position(view.position() + length);
+                    continue;
+                }
+                long pollEpochSecond = view.getLong();
+                byte flags = view.get();
+                boolean checkpoint = (flags & OddsJournal.FLAG_CHECKPOINT) != 0;
+                int count = view.getInt();
+                if (pollEpochSecond > epochSecond) {
+                    break;
+                }
+                if (checkpoint) {
+                    state.clear();
+                }
+                for (int i = 0; i < count; i++) {
+                    long runnerId = view.getLong();
+                    double odds = view.getDouble();
+                    int nameId = view.getInt();
+                    int eventId = view.getInt();
+                    if (nameId == OddsJournal.REMOVED) {
+                        state.remove(runnerId);
+                    } else {
+                        state.put(runnerId, new RunnerSnapshot(lookup(nameId), Double.isNaN(odds) ? null : odds, lookup(eventId)));
+                    }
+                }
+                if ((flags & OddsJournal.FLAG_SPARSE) != 0) {
+                    // The market is rebuilt from entries alone, so the sampled-event list is skipped.
+                    view.position(view.position() + view.getInt() * Integer.BYTES);
+                }
+            }
+            return state;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package uk.co.pluckier.oddstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the tracker's in-memory state from the journal in a single fused pass.
+ * <p>
+ * Every journal segment starts with a checkpoint, so segments can be decoded independently. They are
+ * decoded in parallel on the common fork-join pool, each into a {@link SegmentSummary}, and the
+ * summaries are then merged in chronological order to produce the initial, previous, last-known and
+ * last-movement maps, the history index and the withdrawals the history cannot show. The result matches what polling would have built live,
+ * including runners that joined the baseline after the first poll.
+ */
+public class StartupLoader {
+
+    /** The state the tracker needs before it can start serving. */
+    public record StartupState(Map<Long, RunnerSnapshot> previousOdds, Map<Long, RunnerSnapshot> initialOdds,
+                               Map<Long, RunnerSnapshot> lastKnownOdds, Map<Long, Double> lastRecordedMovements,
+                               HistoryIndex historyIndex, List<Withdrawal> withdrawals) {}
+
+    /**
+     * A priced runner becoming a non-runner, which the history (priced points only) does not record.
+     * @param epochSecond The time of the first poll in which the runner was unpriced.
+     */
+    public record Withdrawal(long runnerId, String event, long epochSecond) {}
+
+    private StartupLoader() {
+    }
+
+    /**
+     * Decodes and merges all segments.
+     * @param segments The journal segments, sorted chronologically.
+     */
+    public static StartupState load(List<File> segments) {
+        long start = System.nanoTime();
+        // A parallel stream's toList() keeps encounter order, so the summaries stay chronological.
+        List<SegmentSummary> summaries = segments.parallelStream().map(StartupLoader::summarize).toList();
+        long decoded = System.nanoTime();
+
+        Map<Long, RunnerSnapshot> initialOdds = new HashMap<>();
+        Map<Long, RunnerSnapshot> previousOdds = new HashMap<>();
+        Map<Long, RunnerSnapshot> lastKnownOdds = new HashMap<>();
+        Map<Long, Double> lastMovements = new HashMap<>();
+        HistoryIndex historyIndex = new HistoryIndex();
+        List<Withdrawal> withdrawals = new ArrayList<>();
+        long polls = 0;
+
+        for (SegmentSummary summary : summaries) {
+            if (summary.polls == 0) {
+                continue;
+            }
+            // A runner's first record in this segment is a movement if it differs from its last record in earlier segments.
+            summary.firstSeen.forEach((runnerId, runner) -> {
+                RunnerSnapshot previousRunner = lastKnownOdds.get(runnerId);
+                if (isMovement(previousRunner, runner)) {
+                    lastMovements.put(runnerId, runner.odds() - previousRunner.odds());
+                }
+            });
+            lastMovements.putAll(summary.movements);
+            // Likewise, a runner first seen unpriced here was withdrawn if it was priced at the end of earlier segments.
+            summary.firstUnpriced.forEach(withdrawal -> {
+                RunnerSnapshot previousRunner = lastKnownOdds.get(withdrawal.runnerId());
+                if (previousRunner != null && previousRunner.isPriced()) {
+                    withdrawals.add(withdrawal);
+                }
+            });
+            withdrawals.addAll(summary.withdrawals);
+            // Each runner joins the baseline at its first price, as it does when polling, so a runner that was unpriced
+            // in the first poll is baselined once it is priced.
+            summary.firstPriced.forEach(initialOdds::putIfAbsent);
+            lastKnownOdds.putAll(summary.lastKnown);
+            previousOdds = summary.lastState;
+            historyIndex.appendAll(summary.history);
+            polls += summary.polls;
+        }
+        long merged = System.nanoTime();
+
+        System.out.printf("Startup rebuild: %d segments, %d polls, %d runners, %d events in %d ms (decode %d ms, merge %d ms)%n",
+                segments.size(), polls, lastKnownOdds.size(), historyIndex.eventCount(),
+                (merged - start) / 1_000_000, (decoded - start) / 1_000_000, (merged - decoded) / 1_000_000);
+        return new StartupState(previousOdds, initialOdds, lastKnownOdds, lastMovements, historyIndex, withdrawals);
+    }
+
+    private static SegmentSummary summarize(File segment) {
+        SegmentSummary summary = new SegmentSummary();
+        try {
+            JournalReader.replay(segment, summary::accept);
+        } catch (IOException e) {
+            System.err.println("Error reading journal segment " + segment.getName() + ": " + e.getMessage());
+        }
+        return summary;
+    }
+
+    private static boolean isMovement(RunnerSnapshot previousRunner, RunnerSnapshot currentRunner) {
+        return previousRunner != null && previousRunner.odds() != null && currentRunner.odds() != null
+                && !currentRunner.odds().equals(previousRunner.odds());
+    }
+
+    /** Everything the merge needs from one segment, built while it is decoded. */
+    private static final class SegmentSummary {
+        private final Map<Long, RunnerSnapshot> lastState = new HashMap<>();
+        private final Map<Long, RunnerSnapshot> firstSeen = new HashMap<>();
+        private final Map<Long, RunnerSnapshot> firstPriced = new HashMap<>();
+        private final Map<Long, RunnerSnapshot> lastKnown = new HashMap<>();
+        private final Map<Long, Double> movements = new HashMap<>();
+        private final List<Withdrawal> withdrawals = new ArrayList<>();
+        private final List<Withdrawal> firstUnpriced = new ArrayList<>();
+        private final HistoryIndex history = new HistoryIndex();
+        private int polls;
+
+        void accept(JournalReader.JournalPoll poll) {
+            for (Map.Entry<Long, RunnerSnapshot> entry : poll.changes().entrySet()) {
+                RunnerSnapshot previousRunner = lastKnown.get(entry.getKey());
+                RunnerSnapshot runner = entry.getValue();
+                if (previousRunner == null) {
+                    firstSeen.putIfAbsent(entry.getKey(), runner);
+                    if (!runner.isPriced()) {
+                        firstUnpriced.add(new Withdrawal(entry.getKey(), runner.event(), poll.epochSecond()));
+                    }
+                } else if (isMovement(previousRunner, runner)) {
+                    movements.put(entry.getKey(), runner.odds() - previousRunner.odds());
+                } else if (previousRunner.isPriced() && !runner.isPriced()) {
+                    withdrawals.add(new Withdrawal(entry.getKey(), runner.event(), poll.epochSecond()));
+                }
+                if (entry.getValue().isPriced()) {
+                    firstPriced.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            lastKnown.putAll(poll.changes());
+            if (poll.checkpoint()) {
+                lastState.clear();
+            }
+            lastState.putAll(poll.changes());
+            poll.removed().forEach(lastState::remove);
+            history.append(poll.epochSecond(), poll.sampled());
+            polls++;
+        }
+    }
+}
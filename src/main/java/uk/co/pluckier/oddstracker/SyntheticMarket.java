@@ -0,0 +1,80 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A generated win market of {@code events} races with {@code runnersPerEvent} runners each, whose
+ * prices take a seeded random walk every time it is advanced. Races go off every 20 minutes from
+ * 13:00 (wrapping past midnight for very large markets), and now and then a runner is withdrawn.
+ * The same seed always produces the same sequence of markets.
+ */
+public class SyntheticMarket {
+
+    private static final DateTimeFormatter EVENT_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private final int events;
+    private final int runnersPerEvent;
+    private final double moveProbability;
+    private final long firstRunnerId;
+    private final Random random;
+    private final double[] prices;
+    private final boolean[] withdrawn;
+
+    /**
+     * @param moveProbability The chance that any one runner's price moves on each advance.
+     * @param seed The random seed.
+     */
+    public SyntheticMarket(int events, int runnersPerEvent, double moveProbability, long seed) {
+        this(events, runnersPerEvent, moveProbability, seed, 1_000_000L);
+    }
+
+    /** @param firstRunnerId The id of the first runner; the rest are numbered on from it. */
+    public SyntheticMarket(int events, int runnersPerEvent, double moveProbability, long seed, long firstRunnerId) {
+        this.events = events;
+        this.runnersPerEvent = runnersPerEvent;
+        this.moveProbability = moveProbability;
+        this.firstRunnerId = firstRunnerId;
+        this.random = new Random(seed);
+        this.prices = new double[events * runnersPerEvent];
+        this.withdrawn = new boolean[prices.length];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = 2.0 + (i % runnersPerEvent) * 1.5;
+        }
+    }
+
+    /**
+     * Moves prices one step and returns the whole market.
+     * @param date The race day to stamp on the event strings.
+     */
+    public synchronized Map<Long, RunnerSnapshot> next(LocalDate date) {
+        Map<Long, RunnerSnapshot> market = new HashMap<>(prices.length * 2);
+        String day = date.format(EVENT_DATE_FORMATTER);
+        for (int e = 0; e < events; e++) {
+            int minutes = 13 * 60 + e * 20;
+            String event = String.format("%s %02d:%02d Synthetic Park Race %d", day, minutes / 60 % 24, minutes % 60, e + 1);
+            for (int r = 0; r < runnersPerEvent; r++) {
+                int i = e * runnersPerEvent + r;
+                step(i);
+                market.put(firstRunnerId + i, new RunnerSnapshot("Runner " + (e + 1) + "-" + (r + 1), withdrawn[i] ? null : prices[i], event));
+            }
+        }
+        return market;
+    }
+
+    /** Moves one price by one or two percent, rounded to two decimal places, and very occasionally withdraws the runner. */
+    private void step(int i) {
+        if (withdrawn[i] || random.nextDouble() >= moveProbability) {
+            return;
+        }
+        if (random.nextInt(2000) == 0) {
+            withdrawn[i] = true;
+            return;
+        }
+        double moved = prices[i] * (1 + (random.nextBoolean() ? 1 : -1) * (0.01 + random.nextDouble() * 0.01));
+        prices[i] = Math.max(1.01, Math.round(moved * 100) / 100.0);
+    }
+}
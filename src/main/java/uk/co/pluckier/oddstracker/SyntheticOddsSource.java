@@ -0,0 +1,38 @@
+package uk.co.pluckier.oddstracker;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Generated prices for load and UI testing: a {@link SyntheticMarket} advanced one step per fetch.
+ * <p>
+ * Settings: {@code oddstracker.synthetic.events} (default 30), {@code oddstracker.synthetic.runnersPerEvent}
+ * (default 10), {@code oddstracker.synthetic.moveProbability} (default 0.3), {@code oddstracker.synthetic.seed}
+ * (default 42) and {@code oddstracker.synthetic.intervalMillis} (a fixed poll interval; default 0 uses the
+ * normal race-time based schedule).
+ */
+public class SyntheticOddsSource implements OddsSource {
+
+    private final SyntheticMarket market;
+    private final Duration interval;
+
+    /** @param interval A fixed interval between fetches, or zero for the normal schedule. */
+    public SyntheticOddsSource(SyntheticMarket market, Duration interval) {
+        this.market = market;
+        this.interval = interval;
+    }
+
+    @Override
+    public MarketSnapshot fetch() {
+        long started = System.nanoTime();
+        Map<Long, RunnerSnapshot> runners = market.next(LocalDate.now());
+        return new MarketSnapshot(LocalDateTime.now(), runners, 0, System.nanoTime() - started);
+    }
+
+    @Override
+    public Duration pacing() {
+        return interval.isZero() ? null : interval;
+    }
+}
@@ -2,29 +2,75 @@ package uk.co.pluckier.oddstracker;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import uk.co.kennah.tkapi.model.MyRunner;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import uk.co.pluckier.oddstracker.HistoryIndex.RaceHistory;
+import uk.co.pluckier.oddstracker.RaceAnalytics.BookSeries;
 
 import static spark.Spark.get;
 import static spark.Spark.port;
 import static spark.Spark.staticFiles;
+import static spark.Spark.threadPool;
 
 public class WebServer {
 
+    private static final DateTimeFormatter EVENT_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    /** Request attribute holding the size of a body written directly to the servlet response. */
+    private static final String RESPONSE_BYTES = "oddstracker.responseBytes";
+    /** Buffer size for streamed responses, which bounds what a streamed request holds in memory. */
+    private static final int STREAM_BUFFER = 8192;
+    /** The most events one /api/history/batch request may cover. */
+    private static final int BATCH_MAX_EVENTS = Integer.getInteger("oddstracker.history.batchMaxEvents", 100);
+    /** The windows, in minutes, over which race analytics rank steamers and drifters, and how many of each to list. */
+    private static final int[] ANALYTICS_WINDOWS = parseWindows(System.getProperty("oddstracker.analytics.windows", "5,15,60"));
+    private static final int ANALYTICS_TOP_MOVERS = Integer.getInteger("oddstracker.analytics.topMovers", 3);
+    /** Jetty's request threads. Each open event stream holds one, so the stream client cap is taken from this. */
+    private static final int MAX_THREADS = Integer.getInteger("oddstracker.http.maxThreads", 200);
+
     private final OddsTracker oddsTracker;
+    /** One permit per open event stream, shared by the odds and alert streams so that together they stay within the cap. */
+    private final Semaphore streamConnections = new Semaphore(OddsStreamBroadcaster.maxClients(MAX_THREADS));
+    private final OddsStreamBroadcaster oddsStream = new OddsStreamBroadcaster(streamConnections);
+    private final OddsStreamBroadcaster alertStream = new OddsStreamBroadcaster(streamConnections);
+    /** The current /api/odds payload for each tracked race day. Replaced, never modified, after each poll. */
+    private volatile Map<LocalDate, OddsPayload> oddsPayloads = Map.of();
+    /** The race day whose changes are pushed to stream clients. Only touched by the poller. */
+    private LocalDate streamDate;
     private final Gson gson = new GsonBuilder()
         .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
         .create();
@@ -35,6 +81,7 @@ public class WebServer {
 
     public void start() {
         port(8080); // The server will run on http://localhost:8080
+        threadPool(MAX_THREADS);
         staticFiles.location("/public"); // Serve files from src/main/resources/public
 
         // Serve the main HTML page
@@ -55,117 +102,572 @@ public class WebServer {
             }
         });
 
-        // Create an API endpoint to provide the latest odds data, grouped by event time
-        get("/api/odds", (req, res) -> {
+        // Create an API endpoint to provide the latest odds data for one race day, grouped by event time.
+        // Each day's payload is rebuilt once per poll that changes it, so each request just writes out the stored bytes.
+        refreshOddsPayload();
+        oddsTracker.addUpdateListener(this::refreshOddsPayload);
+        get("/api/odds", timed("/api/odds", (req, res) -> {
             res.type("application/json");
-            // We only need initial and current odds for the main page logic.
-            // The backend now handles historical state internally for movement calculations.
-            Map<Long, MyRunner> lastKnownRunners = oddsTracker.getLastKnownOdds(); // Used for final status and movement
-            Map<Long, MyRunner> currentRunners = oddsTracker.getCurrentOdds(); // Used for live overround and display odds
-            Map<Long, MyRunner> initialRunners = oddsTracker.getInitialOdds();
-            Map<Long, MyRunner> previousRunners = oddsTracker.getPreviousOdds();
-            Map<Long, Double> lastRecordedMovements = oddsTracker.getLastRecordedMovementMap();
-
-            // Group runners by adjusted event time, sorting the groups by time
-            // The initial snapshot is the source of truth for all runners in a race.
-            Map<String, List<RunnerWithMovement>> groupedByTime = initialRunners.entrySet().stream()
-                    .filter(entry -> {
-                        MyRunner runner = entry.getValue();
-                        return runner.getEvent() != null && !runner.getEvent().isEmpty() && runner.getOdds() != null && runner.getOdds() > 0;
-                    })
-                    .map(entry -> {
-                        MyRunner initialRunner = entry.getValue();
-                        MyRunner lastKnownRunner = lastKnownRunners.get(entry.getKey());
-
-                        // A runner's final state (including non-runner) is based on its last known record.
-                        boolean isNonRunner = lastKnownRunner != null && (lastKnownRunner.getOdds() == null || lastKnownRunner.getOdds() <= 0);
-
-                        // Total movement is based on initial vs. last known odds.
-                        double initialOdds = initialRunner.getOdds();
-                        double finalOdds = (lastKnownRunner != null && lastKnownRunner.getOdds() != null) ? lastKnownRunner.getOdds() : initialOdds;
-                        
-                        // Use BigDecimal for precise arithmetic to avoid floating-point errors.
-                        BigDecimal initialBd = BigDecimal.valueOf(initialOdds);
-                        BigDecimal finalBd = BigDecimal.valueOf(finalOdds);
-                        double movement = finalBd.subtract(initialBd).setScale(2, RoundingMode.HALF_UP).doubleValue();
-
-                        // Recent movement for the arrow is based on the live polling maps.
-                        MyRunner currentRunner = currentRunners.get(entry.getKey());
-                        MyRunner previousRunner = previousRunners.get(entry.getKey());
-                        double lastMovement = 0;
-                        String lastMovementType = "NONE";
-
-                        if (currentRunner != null && currentRunner.getOdds() != null && previousRunner != null && previousRunner.getOdds() != null) {
-                            double recentMovement = currentRunner.getOdds() - previousRunner.getOdds();
-                            if (recentMovement != 0) {
-                                lastMovement = recentMovement;
-                                lastMovementType = "RECENT";
-                            }
-                        }
-                        // If there was no recent movement, fall back to the last recorded movement from history.
-                        if (lastMovement == 0) {
-                            lastMovement = lastRecordedMovements.getOrDefault(entry.getKey(), 0.0);
-                            if (lastMovement != 0) {
-                                lastMovementType = "HISTORICAL";
-                            }
-                        }
-
-                        String status = isNonRunner ? "NON_RUNNER" : "RUNNER";
-                        
-                        // For the label and overround, use live odds if available, otherwise use the final historical odds.
-                        // This ensures the overround is live, and the label shows the most current price.
-                        double displayOdds = (currentRunner != null && currentRunner.getOdds() != null) ? currentRunner.getOdds() : finalOdds;
-                        RunnerData runnerData = new RunnerData(initialRunner.getName(), displayOdds, initialRunner.getEvent(), initialOdds);
-
-                        return new RunnerWithMovement(entry.getKey(), runnerData, movement, status, lastMovement, lastMovementType);
-                    })
-                    .collect(Collectors.groupingBy(runnerWithMovement -> {
-                        try {
-                            DateTimeFormatter originalFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
-                            LocalDateTime eventDateTime = LocalDateTime.parse(runnerWithMovement.runner().event().substring(0, 16), originalFormatter);
-                            return eventDateTime.plusHours(1).format(DateTimeFormatter.ofPattern("HH:mm"));
-                        } catch (Exception e) {
-                            return "Unparsed";
-                        }
-                    }, TreeMap::new, Collectors.toList()));
-
-            // Now, calculate the overround for each group and create the final payload
-            Map<String, RaceDataPayload> payload = new TreeMap<>();
-            for (Map.Entry<String, List<RunnerWithMovement>> entry : groupedByTime.entrySet()) {
-                List<RunnerWithMovement> runners = entry.getValue();
-                double totalImpliedProbability = runners.stream()
-                        .filter(r -> r.status().equals("RUNNER") && r.runner().odds() > 0)
-                        .mapToDouble(r -> 1.0 / r.runner().odds())
-                        .sum();
-                double overround = (totalImpliedProbability * 100.0) - 100.0;
-                payload.put(entry.getKey(), new RaceDataPayload(runners, overround));
-            }
-
-            return payload;
+            LocalDate raceDate;
+            try {
+                String date = req.queryParams("date");
+                raceDate = date == null ? currentRaceDate(oddsTracker.getMarketStates()) : LocalDate.parse(date);
+            } catch (DateTimeParseException e) {
+                res.status(400);
+                return "{\"error\":\"date must be an ISO date, e.g. 2024-05-01\"}";
+            }
+            OddsPayload payload = this.oddsPayloads.get(raceDate);
+            if (payload == null) {
+                res.status(404);
+                return "{\"error\":\"No odds are being tracked for " + raceDate + "\"}";
+            }
+            res.header("Cache-Control", "no-cache");
+            res.header("Vary", "Accept-Encoding");
+
+            String acceptEncoding = req.headers("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            String etag = gzip ? payload.gzipEtag() : payload.etag();
+            res.header("ETag", etag);
+
+            String ifNoneMatch = req.headers("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(payload.etag()) || ifNoneMatch.contains(payload.gzipEtag()))) {
+                res.status(304);
+                return "";
+            }
+            if (gzip) {
+                res.header("Content-Encoding", "gzip");
+            }
+            return writeRaw(req, res, gzip ? payload.gzipped() : payload.json());
+        }));
+
+        // The race days that /api/odds can be asked for, in date order.
+        get("/api/odds/dates", (req, res) -> {
+            res.type("application/json");
+            return oddsTracker.getMarketStates().keySet().stream().map(LocalDate::toString).toList();
         }, gson::toJson);
 
-        get("/api/history", (req, res) -> {
+        // The whole market as it stood at a point in time, keyed by runner id, read back from the journal.
+        get("/api/odds/at", timed("/api/odds/at", (req, res) -> {
+            res.type("application/json");
+            String time = req.queryParams("time");
+            if (time == null || time.isEmpty()) {
+                res.status(400);
+                return "{\"error\":\"time is required\"}";
+            }
+            Map<Long, RunnerSnapshot> market;
+            try {
+                market = oddsTracker.getMarketAt(parseBound(time, false));
+            } catch (DateTimeParseException e) {
+                res.status(400);
+                return "{\"error\":\"time must be epoch milliseconds or an ISO local date-time, e.g. 2024-05-01T13:00\"}";
+            }
+            if (market.isEmpty()) {
+                res.status(404);
+                return "{\"error\":\"No odds were recorded by then\"}";
+            }
+            Map<Long, RunnerSnapshot> sorted = new TreeMap<>(market);
+            return streamJson(req, res, out -> gson.toJson(sorted, Map.class, out));
+        }));
+
+        // Push a full snapshot of the current race day on connect and then only per-runner diffs after each poll.
+        get("/api/odds/stream", (req, res) -> {
+            HttpServletResponse raw = res.raw();
+            raw.setContentType("text/event-stream");
+            raw.setCharacterEncoding("UTF-8");
+            raw.setHeader("Cache-Control", "no-cache");
+            raw.setHeader("X-Accel-Buffering", "no"); // Stop reverse proxies buffering the stream
+            boolean served = oddsStream.serve(raw.getOutputStream(), this::streamSnapshot);
+            if (!served) {
+                // Too many open streams; the dashboard falls back to polling /api/odds.
+                res.status(503);
+                return "Too many odds stream clients";
+            }
+            return "";
+        });
+
+        // Stream one event's history. format=compact gives each runner parallel timestamp and odds arrays, for charts.
+        get("/api/history", timed("/api/history", (req, res) -> {
             res.type("application/json");
             String eventIdentifier = req.queryParams("eventIdentifier");
             if (eventIdentifier == null || eventIdentifier.isEmpty()) {
                 res.status(400);
                 return "{\"error\":\"eventIdentifier is required\"}";
             }
-            RaceHistoryPayload history = oddsTracker.getRaceHistory(eventIdentifier);
-            return history;
+            boolean compact = "compact".equals(req.queryParams("format"));
+            String from = req.queryParams("from");
+            String to = req.queryParams("to");
+            RaceHistory history;
+            if (from == null && to == null) {
+                history = oddsTracker.getRaceHistory(eventIdentifier);
+            } else {
+                try {
+                    long fromEpochSecond = from == null ? Long.MIN_VALUE : parseBound(from, true);
+                    long toEpochSecond = to == null ? Long.MAX_VALUE : parseBound(to, false);
+                    history = oddsTracker.getRaceHistory(eventIdentifier, fromEpochSecond, toEpochSecond);
+                } catch (DateTimeParseException e) {
+                    res.status(400);
+                    return "{\"error\":\"from and to must be epoch milliseconds or ISO local date-times, e.g. 2024-05-01T13:00\"}";
+                }
+            }
+            return streamJson(req, res, out -> HistoryJson.write(out, history, compact));
+        }));
+
+        // Stream the histories of several races at once: the given events, or every race on a day, optionally narrowed
+        // to one venue and a window of off times, e.g. ?venue=Ascot&date=2024-05-01&from=13:00&to=16:00.
+        get("/api/history/batch", timed("/api/history/batch", (req, res) -> {
+            res.type("application/json");
+            boolean compact = "compact".equals(req.queryParams("format"));
+            String[] requested = req.queryParamsValues("eventIdentifier");
+            List<String> events;
+            if (requested != null) {
+                events = List.of(requested);
+            } else {
+                String venue = req.queryParams("venue");
+                String date = req.queryParams("date");
+                String from = req.queryParams("from");
+                String to = req.queryParams("to");
+                if (venue == null && date == null && from == null && to == null) {
+                    res.status(400);
+                    return "{\"error\":\"eventIdentifier, or a venue, date or from/to window, is required\"}";
+                }
+                try {
+                    LocalDate raceDate = date == null ? currentRaceDate(oddsTracker.getMarketStates()) : LocalDate.parse(date);
+                    LocalTime fromTime = from == null ? LocalTime.MIN : LocalTime.parse(from);
+                    LocalTime toTime = to == null ? LocalTime.MAX : LocalTime.parse(to);
+                    events = oddsTracker.listEvents(raceDate).stream()
+                            .filter(event -> matchesVenue(event, venue) && isOffBetween(event, fromTime, toTime))
+                            .toList();
+                } catch (DateTimeParseException e) {
+                    res.status(400);
+                    return "{\"error\":\"date must be an ISO date and from and to times of day, e.g. 2024-05-01 and 13:00\"}";
+                }
+            }
+            if (events.size() > BATCH_MAX_EVENTS) {
+                res.status(400);
+                return "{\"error\":\"At most " + BATCH_MAX_EVENTS + " events can be requested at once; " + events.size() + " matched\"}";
+            }
+            List<RaceHistory> histories = oddsTracker.getRaceHistories(events);
+            return streamJson(req, res, out -> {
+                out.beginObject();
+                out.name("races").beginArray();
+                for (RaceHistory history : histories) {
+                    HistoryJson.write(out, history, compact);
+                }
+                out.endArray();
+                out.endObject();
+            });
+        }));
+
+        // One race's market dynamics: its overround series, each runner's share of the book, and the biggest movers.
+        // windows=5,30 overrides the windows (in minutes) over which movers are ranked.
+        get("/api/races/:event/analytics", timed("/api/races/analytics", (req, res) -> {
+            res.type("application/json");
+            String eventIdentifier = req.params(":event");
+            int[] windows;
+            try {
+                windows = req.queryParams("windows") == null ? ANALYTICS_WINDOWS : parseWindows(req.queryParams("windows"));
+            } catch (NumberFormatException e) {
+                res.status(400);
+                return "{\"error\":\"windows must be a comma-separated list of minutes, e.g. 5,15,60\"}";
+            }
+            RaceHistory history = oddsTracker.getRaceHistory(eventIdentifier);
+            BookSeries book = oddsTracker.getBookSeries(eventIdentifier, history);
+            if (history.pointCount() == 0 && book.size() == 0) {
+                res.status(404);
+                // The event comes from the path, so let Gson escape it.
+                return gson.toJson(Map.of("error", "No odds have been recorded for " + eventIdentifier));
+            }
+            return streamJson(req, res, out -> AnalyticsJson.write(out, history, book, windows, ANALYTICS_TOP_MOVERS));
+        }));
+
+        // Alerts: the rules in force, the most recent alerts, and a stream of new ones as they are raised.
+        AlertEngine alerts = oddsTracker.getAlertEngine();
+        alerts.addSink(new AlertSink() {
+            @Override
+            public void deliver(Alert alert) {
+                alertStream.publish("alert", gson.toJson(alert));
+            }
+
+            @Override
+            public String name() {
+                return "stream";
+            }
+        });
+        get("/api/alerts/rules", (req, res) -> {
+            res.type("application/json");
+            return alerts.getRules();
+        }, gson::toJson);
+        get("/api/alerts", (req, res) -> {
+            res.type("application/json");
+            return alerts.recentAlerts();
+        }, gson::toJson);
+        // Sends the recent alerts as a "snapshot" event on connect (and after falling behind), then each new "alert".
+        get("/api/alerts/stream", (req, res) -> {
+            HttpServletResponse raw = res.raw();
+            raw.setContentType("text/event-stream");
+            raw.setCharacterEncoding("UTF-8");
+            raw.setHeader("Cache-Control", "no-cache");
+            raw.setHeader("X-Accel-Buffering", "no");
+            if (!alertStream.serve(raw.getOutputStream(), () -> gson.toJson(alerts.recentAlerts()))) {
+                res.status(503);
+                return "Too many alert stream clients";
+            }
+            return "";
+        });
+
+        // Operational metrics: Prometheus text for scraping, and the same figures as JSON.
+        Metrics metrics = oddsTracker.getMetrics();
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return metrics.toPrometheus();
+        });
+        get("/api/metrics", (req, res) -> {
+            res.type("application/json");
+            return metrics.snapshot();
         }, gson::toJson);
     }
 
+    /**
+     * Wraps a route to record its latency and response size, labelled with its endpoint.
+     * Sizes are of the body as sent, so a gzipped response counts its compressed size.
+     */
+    private Route timed(String endpoint, Route route) {
+        Metrics metrics = oddsTracker.getMetrics();
+        Histogram latency = metrics.timer("oddstracker_http_request_seconds", "Time to handle a request, by endpoint.", "endpoint", endpoint);
+        Histogram size = metrics.histogram("oddstracker_http_response_bytes", "Response body size, by endpoint.", "endpoint", endpoint);
+        return (req, res) -> {
+            long started = System.nanoTime();
+            Object body = route.handle(req, res);
+            latency.record(System.nanoTime() - started);
+            Integer written = req.attribute(RESPONSE_BYTES);
+            size.record(written != null ? written : body instanceof String text ? text.getBytes(StandardCharsets.UTF_8).length : 0);
+            return body;
+        };
+    }
+
+    /**
+     * Rebuilds the /api/odds payload of every race day whose state changed, and stores it serialized and gzipped,
+     * ready to serve. Called once at startup and then by the poller after every poll.
+     */
+    void refreshOddsPayload() {
+        NavigableMap<LocalDate, MarketState> states = oddsTracker.getMarketStates();
+        Map<LocalDate, OddsPayload> previousPayloads = this.oddsPayloads;
+        Map<LocalDate, OddsPayload> payloads = new HashMap<>();
+        states.forEach((raceDate, state) -> {
+            OddsPayload payload = previousPayloads.get(raceDate);
+            if (payload == null || payload.state() != state) {
+                OddsPayload rebuilt = buildOddsPayload(state);
+                payload = rebuilt != null ? rebuilt : payload;
+            }
+            if (payload != null) {
+                payloads.put(raceDate, payload);
+            }
+        });
+        this.oddsPayloads = Map.copyOf(payloads);
+
+        LocalDate previousStreamDate = this.streamDate;
+        this.streamDate = currentRaceDate(states);
+        OddsPayload previous = previousPayloads.get(streamDate);
+        OddsPayload current = payloads.get(streamDate);
+        if (oddsStream.clientCount() == 0 || current == null || current == previous) {
+            return;
+        }
+        if (!streamDate.equals(previousStreamDate) || previous == null) {
+            // The stream has moved on to another race day, so clients start again from a full snapshot.
+            oddsStream.publish("snapshot", new String(current.json(), StandardCharsets.UTF_8));
+            return;
+        }
+        OddsDiff diff = diffRaces(previous.races(), current.races());
+        if (!diff.isEmpty()) {
+            oddsStream.publish("diff", gson.toJson(diff));
+        }
+    }
+
+    /** @return The current race day's payload as sent to a stream client on connect, or an empty object if there is none. */
+    private String streamSnapshot() {
+        OddsPayload payload = oddsPayloads.get(currentRaceDate(oddsTracker.getMarketStates()));
+        return payload == null ? "{}" : new String(payload.json(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The race day /api/odds and the stream show by default: today, or if today is not tracked the next day that is,
+     * or failing that the latest (e.g. while replaying an old journal).
+     */
+    static LocalDate currentRaceDate(NavigableMap<LocalDate, MarketState> states) {
+        LocalDate today = LocalDate.now();
+        LocalDate upcoming = states.ceilingKey(today);
+        if (upcoming != null) {
+            return upcoming;
+        }
+        return states.isEmpty() ? today : states.lastKey();
+    }
+
+    /**
+     * Compares two payloads race by race. Runners are included only if their price, movement or status
+     * changed, and overrounds only for races that had a change.
+     */
+    private static OddsDiff diffRaces(Map<String, RaceDataPayload> previous, Map<String, RaceDataPayload> current) {
+        Map<String, List<RunnerWithMovement>> changedRunners = new TreeMap<>();
+        Map<String, List<Long>> removedRunners = new TreeMap<>();
+        Map<String, Double> overrounds = new TreeMap<>();
+
+        for (Map.Entry<String, RaceDataPayload> race : current.entrySet()) {
+            RaceDataPayload previousRace = previous.get(race.getKey());
+            Map<Long, RunnerWithMovement> previousRunners = new HashMap<>();
+            if (previousRace != null) {
+                previousRace.runners().forEach(r -> previousRunners.put(r.runnerId(), r));
+            }
+            List<RunnerWithMovement> changed = new ArrayList<>();
+            for (RunnerWithMovement runner : race.getValue().runners()) {
+                if (!runner.equals(previousRunners.remove(runner.runnerId()))) {
+                    changed.add(runner);
+                }
+            }
+            if (!changed.isEmpty()) {
+                changedRunners.put(race.getKey(), changed);
+            }
+            if (!previousRunners.isEmpty()) {
+                removedRunners.put(race.getKey(), new ArrayList<>(previousRunners.keySet()));
+            }
+            if (!changed.isEmpty() || !previousRunners.isEmpty()) {
+                overrounds.put(race.getKey(), race.getValue().overround());
+            }
+        }
+        List<String> removedRaces = previous.keySet().stream().filter(time -> !current.containsKey(time)).toList();
+        return new OddsDiff(changedRunners, removedRunners, overrounds, removedRaces);
+    }
+
+    /**
+     * Writes a pre-encoded body straight to the servlet response.
+     * This bypasses Spark's own gzip wrapping, which would otherwise compress an already-gzipped body again.
+     */
+    private static String writeRaw(Request req, Response res, byte[] body) throws IOException {
+        req.attribute(RESPONSE_BYTES, body.length);
+        HttpServletResponse raw = res.raw();
+        raw.setContentLength(body.length);
+        try (OutputStream out = raw.getOutputStream()) {
+            out.write(body);
+        }
+        return "";
+    }
+
+    /**
+     * Streams a JSON body straight to the servlet response, gzipped if the client accepts it, so a request holds no
+     * more than the writer's buffers however large the body. Like {@link #writeRaw}, this bypasses Spark's gzip wrapping.
+     */
+    private static String streamJson(Request req, Response res, JsonBody body) throws IOException {
+        res.header("Vary", "Accept-Encoding");
+        String acceptEncoding = req.headers("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            res.header("Content-Encoding", "gzip");
+        }
+        CountingOutputStream counted = new CountingOutputStream(res.raw().getOutputStream());
+        OutputStream encoded = gzip ? new GZIPOutputStream(counted, STREAM_BUFFER) : counted;
+        try (JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(encoded, StandardCharsets.UTF_8), STREAM_BUFFER))) {
+            body.write(out);
+        } finally {
+            req.attribute(RESPONSE_BYTES, (int) Math.min(Integer.MAX_VALUE, counted.count));
+        }
+        return "";
+    }
+
+    /**
+     * Parses a history range bound given as epoch milliseconds or a local date-time, e.g. 2024-05-01T13:00.
+     * @param from True for the start of the range, which rounds up to a whole second rather than down.
+     */
+    private static long parseBound(String value, boolean from) {
+        if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+            try {
+                long millis = Long.parseLong(value);
+                return from ? -Math.floorDiv(-millis, 1000) : Math.floorDiv(millis, 1000);
+            } catch (NumberFormatException e) {
+                throw new DateTimeParseException("Out of range", value, 0);
+            }
+        }
+        return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    /**
+     * Builds and encodes one race day's /api/odds payload: every baseline runner with its movement, grouped by race time
+     * with overrounds.
+     * @return The payload, or null if it could not be compressed.
+     */
+    OddsPayload buildOddsPayload(MarketState state) {
+        // Group runners by adjusted event time, sorting the groups by time.
+        // The baseline is the source of truth for all runners in a race, and is already grouped by event.
+        Map<String, List<RunnerWithMovement>> groupedByTime = new TreeMap<>();
+        state.racesByEvent().forEach((event, slots) -> {
+            List<RunnerWithMovement> group = groupedByTime.computeIfAbsent(timeGroup(event), key -> new ArrayList<>());
+            for (int slot : slots) {
+                group.add(runnerWithMovement(state, slot));
+            }
+        });
+
+        // Now, calculate the overround for each group and create the final payload
+        Map<String, RaceDataPayload> races = new TreeMap<>();
+        for (Map.Entry<String, List<RunnerWithMovement>> entry : groupedByTime.entrySet()) {
+            List<RunnerWithMovement> runners = entry.getValue();
+            double totalImpliedProbability = runners.stream()
+                    .filter(r -> r.status().equals("RUNNER") && r.runner().odds() > 0)
+                    .mapToDouble(r -> 1.0 / r.runner().odds())
+                    .sum();
+            double overround = (totalImpliedProbability * 100.0) - 100.0;
+            races.put(entry.getKey(), new RaceDataPayload(runners, overround));
+        }
+
+        // Encode straight into the buffer rather than through an intermediate String.
+        ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream(Math.max(1024, state.registry().size() * 256));
+        try (JsonWriter out = new JsonWriter(new OutputStreamWriter(jsonBytes, StandardCharsets.UTF_8))) {
+            gson.toJson(races, races.getClass(), out);
+        } catch (IOException e) {
+            System.err.println("Error encoding odds payload: " + e.getMessage());
+            return null;
+        }
+        byte[] json = jsonBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(json.length);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(gzipped)) {
+            gzipOut.write(json);
+        } catch (IOException e) {
+            System.err.println("Error compressing odds payload: " + e.getMessage());
+            return null;
+        }
+        return new OddsPayload(state, races, "\"" + tag + "\"", "\"" + tag + "-gzip\"", json, gzipped.toByteArray());
+    }
+
+    private static RunnerWithMovement runnerWithMovement(MarketState state, int slot) {
+        RunnerStore initialRunners = state.initial();
+        double lastKnownOdds = state.lastKnown().odds(slot); // Used for final status and movement
+
+        // A runner's final state (including non-runner) is based on its last known record.
+        boolean isNonRunner = state.lastKnown().contains(slot) && !(lastKnownOdds > 0);
+
+        // Total movement is based on initial vs. last known odds.
+        double initialOdds = initialRunners.odds(slot);
+        double finalOdds = !Double.isNaN(lastKnownOdds) ? lastKnownOdds : initialOdds;
+
+        // Use BigDecimal for precise arithmetic to avoid floating-point errors.
+        BigDecimal initialBd = BigDecimal.valueOf(initialOdds);
+        BigDecimal finalBd = BigDecimal.valueOf(finalOdds);
+        double movement = finalBd.subtract(initialBd).setScale(2, RoundingMode.HALF_UP).doubleValue();
+
+        // Recent movement for the arrow is based on the live polling state.
+        double currentOdds = state.current().odds(slot); // Used for live overround and display odds
+        double previousOdds = state.previous().odds(slot);
+        double lastMovement = 0;
+        String lastMovementType = "NONE";
+
+        if (!Double.isNaN(currentOdds) && !Double.isNaN(previousOdds)) {
+            double recentMovement = currentOdds - previousOdds;
+            if (recentMovement != 0) {
+                lastMovement = recentMovement;
+                lastMovementType = "RECENT";
+            }
+        }
+        // If there was no recent movement, fall back to the last recorded movement from history.
+        if (lastMovement == 0) {
+            lastMovement = state.lastMovement(slot);
+            if (lastMovement != 0) {
+                lastMovementType = "HISTORICAL";
+            }
+        }
+
+        String status = isNonRunner ? "NON_RUNNER" : "RUNNER";
+
+        // For the label and overround, use live odds if available, otherwise use the final historical odds.
+        // This ensures the overround is live, and the label shows the most current price.
+        double displayOdds = !Double.isNaN(currentOdds) ? currentOdds : finalOdds;
+        RunnerData runnerData = new RunnerData(initialRunners.name(slot), displayOdds, initialRunners.event(slot), initialOdds);
+
+        return new RunnerWithMovement(state.registry().runnerId(slot), runnerData, movement, status, lastMovement, lastMovementType);
+    }
+
+    /**
+     * Parses a comma-separated list of windows in minutes, e.g. "5,15,60".
+     * @throws NumberFormatException If any is not a positive whole number.
+     */
+    private static int[] parseWindows(String value) {
+        int[] windows = Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        if (windows.length == 0 || Arrays.stream(windows).anyMatch(minutes -> minutes <= 0)) {
+            throw new NumberFormatException("Windows must be positive: " + value);
+        }
+        return windows;
+    }
+
+    /** Matches an event whose name, after the date and time, starts with the venue, ignoring case. Null matches every event. */
+    private static boolean matchesVenue(String event, String venue) {
+        return venue == null || (event.length() > 17 && event.regionMatches(true, 17, venue, 0, venue.length()));
+    }
+
+    /** @return True if the event string's off time is within the window, inclusive. */
+    private static boolean isOffBetween(String event, LocalTime from, LocalTime to) {
+        try {
+            LocalTime off = LocalDateTime.parse(event.substring(0, 16), EVENT_FORMATTER).toLocalTime();
+            return !off.isBefore(from) && !off.isAfter(to);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** The dashboard groups races by off time, shown an hour on from the event string's time. */
+    private static String timeGroup(String event) {
+        try {
+            LocalDateTime eventDateTime = LocalDateTime.parse(event.substring(0, 16), EVENT_FORMATTER);
+            return eventDateTime.plusHours(1).format(TIME_FORMATTER);
+        } catch (Exception e) {
+            return "Unparsed";
+        }
+    }
+
+    /**
+     * One race day's serialized /api/odds payload, as identity and gzip encodings with their ETags, with the state and
+     * races it was built from so the next poll can tell whether it changed and what to push to stream clients.
+     */
+    private record OddsPayload(MarketState state, Map<String, RaceDataPayload> races, String etag, String gzipEtag,
+                               byte[] json, byte[] gzipped) {}
+
+    /** A record for the changes between two /api/odds payloads, keyed by race time, as pushed to stream clients. */
+    private record OddsDiff(Map<String, List<RunnerWithMovement>> runners, Map<String, List<Long>> removedRunners,
+                            Map<String, Double> overrounds, List<String> removedRaces) {
+        boolean isEmpty() {
+            return runners.isEmpty() && removedRunners.isEmpty() && removedRaces.isEmpty();
+        }
+    }
+
     /** A record to bundle a runner with its calculated odds movement. */
     private record RunnerWithMovement(long runnerId, RunnerData runner, double movement, String status, double lastMovement, String lastMovementType) {}
 
     /** A record to hold the final payload for a race, including runners and overround. */
     private record RaceDataPayload(List<RunnerWithMovement> runners, double overround) {}
 
-    /** A record for a single point in a runner's odds history. */
-    public record HistoryPoint(LocalDateTime timestamp, double odds) {}
+    /** A response body written to a {@link JsonWriter}. */
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    /** Counts the bytes that reach the underlying stream, for the response size metric. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
 
-    /** A record for the full history payload for a race, containing history for multiple runners. */
-    public record RaceHistoryPayload(String eventIdentifier, List<RunnerHistory> runnersHistory) {}
-    public record RunnerHistory(long runnerId, String runnerName, List<HistoryPoint> history) {}
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
 }
\ No newline at end of file
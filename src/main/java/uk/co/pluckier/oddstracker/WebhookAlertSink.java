@@ -0,0 +1,44 @@
+package uk.co.pluckier.oddstracker;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * POSTs each alert as JSON to a webhook URL, e.g. a chat integration. A failed delivery is logged and not retried.
+ */
+public class WebhookAlertSink implements AlertSink {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final URI uri;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    private final Gson gson = new Gson();
+
+    public WebhookAlertSink(URI uri) {
+        this.uri = uri;
+    }
+
+    @Override
+    public void deliver(Alert alert) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(alert)))
+                .build();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() >= 300) {
+            throw new IOException("Webhook returned HTTP " + response.statusCode());
+        }
+    }
+
+    @Override
+    public String name() {
+        return "webhook";
+    }
+}
@@ -0,0 +1,111 @@
+package uk.co.pluckier.oddstracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalCompactorTest {
+
+    private static final LocalDate RACE_DAY = LocalDate.of(2024, 5, 1);
+    /** An hour before the first synthetic race, through to after the last, a poll a minute. */
+    private static final LocalDateTime FIRST_POLL = RACE_DAY.atTime(12, 0);
+    private static final int POLLS = 180;
+    private static final long WITHDRAWN = 1_000_003L;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void compactionKeepsTheStateRebuiltAtStartup() throws IOException {
+        writeDay();
+        List<File> segments = OddsJournal.listSegments(dir);
+        assertEquals(2, segments.size());
+        StartupLoader.StartupState before = StartupLoader.load(segments);
+        assertFalse(before.lastRecordedMovements().isEmpty());
+
+        compactor().compact(RACE_DAY.plusDays(1));
+
+        List<File> files = OddsJournal.listAll(dir);
+        assertEquals(List.of(OddsJournal.archiveFile(dir, RACE_DAY)), files);
+        StartupLoader.StartupState after = StartupLoader.load(files);
+        assertEquals(before.lastKnownOdds(), after.lastKnownOdds());
+        assertEquals(before.lastRecordedMovements(), after.lastRecordedMovements());
+        assertEquals(before.initialOdds(), after.initialOdds());
+        assertEquals(before.previousOdds(), after.previousOdds());
+    }
+
+    @Test
+    void compactionKeepsEveryPriceChange() throws IOException {
+        writeDay();
+        String event = "01-05-2024 13:00 Synthetic Park Race 1";
+        SnapshotStore store = new SnapshotStore(dir);
+        HistoryIndex before = store.readHistory(event, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        compactor(store::refresh).compact(RACE_DAY.plusDays(1));
+
+        // The same store reads the archive, having been told the segments were replaced.
+        HistoryIndex after = store.readHistory(event, Long.MIN_VALUE, Long.MAX_VALUE);
+        List<HistoryIndex.RunnerHistory> full = before.getRaceHistory(event).runners();
+        List<HistoryIndex.RunnerHistory> compacted = after.getRaceHistory(event).runners();
+        assertEquals(full.size(), compacted.size());
+        assertTrue(after.getRaceHistory(event).pointCount() < before.getRaceHistory(event).pointCount());
+        for (HistoryIndex.RunnerHistory runner : full) {
+            for (int i = 0; i < runner.size(); i++) {
+                // Any point dropped was a repeat of the price before it.
+                assertEquals(runner.odds()[i], after.priceAt(event, runner.runnerId(), runner.epochSeconds()[i]), 0.0,
+                        runner.runnerName() + " at " + runner.epochSeconds()[i]);
+            }
+        }
+    }
+
+    @Test
+    void theDayBeingWrittenIsLeftAlone() throws IOException {
+        writeDay();
+
+        compactor().compact(RACE_DAY);
+
+        assertEquals(2, OddsJournal.listAll(dir).size());
+        assertTrue(OddsJournal.listAll(dir).stream().noneMatch(OddsJournal::isArchive));
+    }
+
+    /**
+     * Journals a synthetic race day in two segments, as if the tracker restarted mid-afternoon, with one runner
+     * leaving the market for good partway through.
+     */
+    private void writeDay() throws IOException {
+        SyntheticMarket market = new SyntheticMarket(4, 6, 0.3, 42);
+        OddsJournal journal = new OddsJournal(dir, 10);
+        for (int i = 0; i < POLLS; i++) {
+            if (i == POLLS / 2) {
+                journal.close();
+                journal = new OddsJournal(dir, 10);
+            }
+            Map<Long, RunnerSnapshot> odds = market.next(RACE_DAY);
+            if (i >= POLLS / 3) {
+                odds.remove(WITHDRAWN);
+            }
+            journal.append(FIRST_POLL.plusMinutes(i), odds);
+        }
+        journal.close();
+    }
+
+    private JournalCompactor compactor() {
+        return compactor(() -> { });
+    }
+
+    private JournalCompactor compactor(Runnable onChange) {
+        return new JournalCompactor(dir, () -> null, onChange, Duration.ofMinutes(30), 0, null, ZoneId.systemDefault(), 20);
+    }
+}
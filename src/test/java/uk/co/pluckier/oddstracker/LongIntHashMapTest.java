@@ -0,0 +1,55 @@
+package uk.co.pluckier.oddstracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LongIntHashMapTest {
+
+    @Test
+    void keepsEveryKeyAsTheTableGrows() {
+        LongIntHashMap map = new LongIntHashMap(1);
+        for (int i = 0; i < 10_000; i++) {
+            map.putNew(1_000_000L + i, i);
+            // Check the whole map after each resize, not just at the end.
+            if (Integer.bitCount(i + 1) == 1) {
+                for (int j = 0; j <= i; j++) {
+                    assertEquals(j, map.get(1_000_000L + j));
+                }
+            }
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, map.get(1_000_000L + i));
+        }
+        assertEquals(-1, map.get(999_999L));
+        assertEquals(-1, map.get(1_010_000L));
+    }
+
+    @Test
+    void handlesZeroKeysAndValuesAndScatteredKeys() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        // Values are stored plus one, so neither a zero key nor a zero value may read as an empty slot.
+        assertEquals(-1, map.get(0L));
+        map.putNew(0L, 0);
+        map.putNew(-1L, 1);
+        map.putNew(Long.MIN_VALUE, 2);
+        map.putNew(Long.MAX_VALUE, Integer.MAX_VALUE - 1);
+        assertEquals(0, map.get(0L));
+        assertEquals(1, map.get(-1L));
+        assertEquals(2, map.get(Long.MIN_VALUE));
+        assertEquals(Integer.MAX_VALUE - 1, map.get(Long.MAX_VALUE));
+
+        Random random = new Random(7);
+        long[] keys = random.longs(5_000).distinct().filter(key -> key != 0 && key != -1 && key != Long.MIN_VALUE && key != Long.MAX_VALUE).toArray();
+        for (int i = 0; i < keys.length; i++) {
+            map.putNew(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i]));
+        }
+        assertEquals(keys.length + 4, map.size());
+    }
+}
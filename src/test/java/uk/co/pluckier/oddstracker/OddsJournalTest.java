@@ -0,0 +1,134 @@
+package uk.co.pluckier.oddstracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OddsJournalTest {
+
+    private static final LocalDateTime FIRST_POLL = LocalDateTime.of(2024, 5, 1, 12, 0);
+    private static final String RACE = "01-05-2024 14:30 Ascot";
+
+    @TempDir
+    File dir;
+
+    @Test
+    void replayRebuildsEveryPollIncludingRemovedRunners() throws IOException {
+        Map<Long, RunnerSnapshot> first = Map.of(
+                1L, new RunnerSnapshot("Alpha", 3.5, RACE),
+                2L, new RunnerSnapshot("Bravo", 5.0, RACE),
+                3L, new RunnerSnapshot("Charlie", 8.0, RACE));
+        Map<Long, RunnerSnapshot> second = Map.of(
+                1L, new RunnerSnapshot("Alpha", 3.5, RACE),
+                2L, new RunnerSnapshot("Bravo", 4.5, RACE));
+        Map<Long, RunnerSnapshot> third = Map.of(
+                1L, new RunnerSnapshot("Alpha", null, RACE),
+                2L, new RunnerSnapshot("Bravo", 4.5, RACE),
+                4L, new RunnerSnapshot("Delta", 12.0, null));
+        List<Map<Long, RunnerSnapshot>> written = List.of(first, second, third);
+        try (OddsJournal journal = new OddsJournal(dir, 30)) {
+            assertEquals(3, journal.append(FIRST_POLL, first));
+            // Only Bravo's new price, and Charlie's removal.
+            assertEquals(2, journal.append(FIRST_POLL.plusMinutes(1), second));
+            assertEquals(2, journal.append(FIRST_POLL.plusMinutes(2), third));
+        }
+
+        List<JournalReader.JournalPoll> polls = replay();
+        assertEquals(3, polls.size());
+        for (int i = 0; i < polls.size(); i++) {
+            assertEquals(epochSecond(FIRST_POLL.plusMinutes(i)), polls.get(i).epochSecond());
+            assertEquals(written.get(i), polls.get(i).state());
+        }
+        assertTrue(polls.get(0).checkpoint());
+        assertFalse(polls.get(1).checkpoint());
+        assertEquals(List.of(3L), polls.get(1).removed());
+        assertEquals(Map.of(2L, new RunnerSnapshot("Bravo", 4.5, RACE)), polls.get(1).changes());
+    }
+
+    @Test
+    void checkpointsRestateTheWholeMarket() throws IOException {
+        Map<Long, RunnerSnapshot> market = new HashMap<>(Map.of(
+                1L, new RunnerSnapshot("Alpha", 3.5, RACE),
+                2L, new RunnerSnapshot("Bravo", 5.0, RACE)));
+        try (OddsJournal journal = new OddsJournal(dir, 2)) {
+            journal.append(FIRST_POLL, market);
+            market.remove(2L);
+            journal.append(FIRST_POLL.plusMinutes(1), market);
+            assertEquals(1, journal.append(FIRST_POLL.plusMinutes(2), market));
+        }
+
+        List<JournalReader.JournalPoll> polls = replay();
+        assertTrue(polls.get(2).checkpoint());
+        assertEquals(market, polls.get(2).state());
+    }
+
+    @Test
+    void tornFinalRecordIsIgnored() throws IOException {
+        Map<Long, RunnerSnapshot> first = Map.of(1L, new RunnerSnapshot("Alpha", 3.5, RACE));
+        long intact;
+        try (OddsJournal journal = new OddsJournal(dir, 30)) {
+            journal.append(FIRST_POLL, first);
+            intact = journal.getBytesWritten();
+            // A new runner, so the final record starts with a dictionary string as well as a poll.
+            journal.append(FIRST_POLL.plusMinutes(1), Map.of(1L, new RunnerSnapshot("Alpha", 3.0, RACE),
+                    2L, new RunnerSnapshot("Bravo", 5.0, RACE)));
+        }
+        File segment = OddsJournal.listSegments(dir).get(0);
+
+        // Cut the final record off at every byte, as a crash mid-write could.
+        for (long length = segment.length() - 1; length >= intact; length--) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                file.setLength(length);
+            }
+            String cut = "cut to " + length;
+            List<JournalReader.JournalPoll> polls = replay();
+            assertEquals(1, polls.size(), cut);
+            assertEquals(first, polls.get(0).state(), cut);
+            assertEquals(first, new SnapshotStore(dir).getMarketAt(epochSecond(FIRST_POLL.plusMinutes(1))), cut);
+        }
+    }
+
+    @Test
+    void eachProcessStartOpensANewSegment() throws IOException {
+        Map<Long, RunnerSnapshot> market = Map.of(1L, new RunnerSnapshot("Alpha", 3.5, RACE));
+        try (OddsJournal journal = new OddsJournal(dir, 30)) {
+            journal.append(FIRST_POLL, market);
+        }
+        try (OddsJournal journal = new OddsJournal(dir, 30)) {
+            // A fresh segment has no dictionary or previous market, so it starts with a full checkpoint.
+            assertEquals(1, journal.append(FIRST_POLL, market));
+        }
+
+        assertEquals(2, OddsJournal.listSegments(dir).size());
+        List<JournalReader.JournalPoll> polls = replay();
+        assertEquals(2, polls.size());
+        assertTrue(polls.get(1).checkpoint());
+        assertEquals(market, polls.get(1).state());
+    }
+
+    private List<JournalReader.JournalPoll> replay() throws IOException {
+        List<JournalReader.JournalPoll> polls = new ArrayList<>();
+        for (File segment : OddsJournal.listSegments(dir)) {
+            JournalReader.replay(segment, poll -> polls.add(new JournalReader.JournalPoll(poll.epochSecond(), poll.checkpoint(),
+                    poll.sparse(), poll.changes(), poll.removed(), poll.sampledEvents(), new HashMap<>(poll.state()))));
+        }
+        return polls;
+    }
+
+    private static long epochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+}
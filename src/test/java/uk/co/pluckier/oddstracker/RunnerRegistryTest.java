@@ -0,0 +1,23 @@
+package uk.co.pluckier.oddstracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class RunnerRegistryTest {
+
+    @Test
+    void givesEachRunnerOneSlotForGood() {
+        RunnerRegistry registry = new RunnerRegistry(2);
+        for (long runnerId = 0; runnerId < 1_000; runnerId++) {
+            assertEquals((int) runnerId, registry.register(runnerId * 7919));
+        }
+        // A runner that leaves the market keeps its slot, so registering it again returns the same one.
+        for (long runnerId = 0; runnerId < 1_000; runnerId++) {
+            assertEquals((int) runnerId, registry.register(runnerId * 7919));
+            assertEquals(runnerId * 7919, registry.runnerId((int) runnerId));
+        }
+        assertEquals(1_000, registry.size());
+        assertEquals(-1, registry.find(1));
+    }
+}
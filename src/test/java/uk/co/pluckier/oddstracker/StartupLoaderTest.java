@@ -0,0 +1,105 @@
+package uk.co.pluckier.oddstracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StartupLoaderTest {
+
+    private static final LocalDate RACE_DAY = LocalDate.of(2024, 5, 1);
+    private static final LocalDateTime FIRST_POLL = RACE_DAY.atTime(12, 0);
+    private static final String ASCOT = "01-05-2024 14:30 Ascot";
+    private static final String YORK = "01-05-2024 15:05 York";
+
+    @TempDir
+    File dir;
+
+    @Test
+    void rebuiltStateMatchesTheStateBuiltLive() {
+        List<Map<Long, RunnerSnapshot>> polls = List.of(
+                Map.of(1L, new RunnerSnapshot("Alpha", 3.5, ASCOT),
+                        2L, new RunnerSnapshot("Bravo", 5.0, ASCOT),
+                        3L, new RunnerSnapshot("Charlie", null, ASCOT)),
+                // Charlie is priced for the first time, and Alpha moves.
+                Map.of(1L, new RunnerSnapshot("Alpha", 3.0, ASCOT),
+                        2L, new RunnerSnapshot("Bravo", 5.0, ASCOT),
+                        3L, new RunnerSnapshot("Charlie", 6.0, ASCOT)),
+                // Bravo is withdrawn, and a new race appears.
+                Map.of(1L, new RunnerSnapshot("Alpha", 2.8, ASCOT),
+                        3L, new RunnerSnapshot("Charlie", 6.5, ASCOT),
+                        4L, new RunnerSnapshot("Delta", 4.0, YORK)),
+                // Delta is made a non-runner.
+                Map.of(1L, new RunnerSnapshot("Alpha", 2.8, ASCOT),
+                        3L, new RunnerSnapshot("Charlie", 7.0, ASCOT),
+                        4L, new RunnerSnapshot("Delta", null, YORK)));
+        Deque<OddsSource.MarketSnapshot> snapshots = new ArrayDeque<>();
+        for (int i = 0; i < polls.size(); i++) {
+            snapshots.add(new OddsSource.MarketSnapshot(FIRST_POLL.plusMinutes(i), polls.get(i), 0, 0));
+        }
+        OddsTracker live = new OddsTracker(dir, snapshots::poll, RACE_DAY);
+        for (int i = 0; i < polls.size(); i++) {
+            live.pollAndWait();
+        }
+
+        OddsTracker restarted = new OddsTracker(dir, () -> null, RACE_DAY);
+        MarketState expected = live.getMarketState(RACE_DAY);
+        MarketState rebuilt = restarted.getMarketState(RACE_DAY);
+
+        assertEquals(byRunnerId(expected.initial()), byRunnerId(rebuilt.initial()));
+        assertTrue(byRunnerId(rebuilt.initial()).containsKey(3L));
+        assertEquals(byRunnerId(expected.lastKnown()), byRunnerId(rebuilt.lastKnown()));
+        assertEquals(byRunnerId(expected.current()), byRunnerId(rebuilt.current()));
+        assertEquals(races(expected), races(rebuilt));
+        assertEquals(movements(expected), movements(rebuilt));
+        for (String event : List.of(ASCOT, YORK)) {
+            assertEquals(book(live.getBookSeries(event, null)), book(restarted.getBookSeries(event, null)), event);
+        }
+        // Delta's withdrawal survives the restart, so York's book is empty after it.
+        assertTrue(restarted.getBookSeries(YORK, null).isWithdrawn(4L, epochSecond(FIRST_POLL.plusMinutes(3))));
+    }
+
+    private static List<Object> book(RaceAnalytics.BookSeries series) {
+        return List.of(Arrays.toString(Arrays.copyOf(series.epochSeconds(), series.size())),
+                Arrays.toString(Arrays.copyOf(series.impliedProbabilities(), series.size())), series.withdrawnAt());
+    }
+
+    private static long epochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    private static Map<Long, RunnerSnapshot> byRunnerId(RunnerStore store) {
+        Map<Long, RunnerSnapshot> runners = new HashMap<>();
+        store.forEach(slot -> {
+            long runnerId = store.registry().runnerId(slot);
+            runners.put(runnerId, store.get(runnerId));
+        });
+        return runners;
+    }
+
+    private static Map<String, List<Long>> races(MarketState state) {
+        Map<String, List<Long>> races = new TreeMap<>();
+        state.racesByEvent().forEach((event, slots) -> races.put(event,
+                Arrays.stream(slots).mapToObj(slot -> state.registry().runnerId(slot)).toList()));
+        return races;
+    }
+
+    private static Map<Long, Double> movements(MarketState state) {
+        Map<Long, Double> movements = new HashMap<>();
+        state.lastKnown().forEach(slot -> movements.put(state.registry().runnerId(slot), state.lastMovement(slot)));
+        return movements;
+    }
+}